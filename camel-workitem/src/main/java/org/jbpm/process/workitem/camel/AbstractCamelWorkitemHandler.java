@@ -20,69 +20,359 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.Endpoint;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.ProducerTemplate;
+import org.apache.camel.spi.Synchronization;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
 import org.jbpm.process.workitem.camel.request.RequestMapper;
 import org.jbpm.process.workitem.camel.response.ResponseMapper;
+import org.jbpm.process.workitem.camel.response.StreamResponsePayloadMapper;
 import org.jbpm.process.workitem.camel.uri.URIMapper;
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.Cacheable;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class AbstractCamelWorkitemHandler extends AbstractLogOrThrowWorkItemHandler {
+public abstract class AbstractCamelWorkitemHandler extends AbstractLogOrThrowWorkItemHandler implements Cacheable {
 
     static final Logger logger = LoggerFactory.getLogger(AbstractCamelWorkitemHandler.class);
 
+    public static final String ENDPOINT_CACHE_SIZE = "org.jbpm.process.workitem.camel.endpointCacheSize";
+    public static final String PRODUCER_CACHE_SIZE = "org.jbpm.process.workitem.camel.producerCacheSize";
+    public static final String ASYNC_MAX_CONCURRENCY = "org.jbpm.process.workitem.camel.async.maxConcurrency";
+
     protected ResponseMapper responseMapper;
     protected RequestMapper requestMapper;
     protected URIMapper uriConverter;
     protected CamelContext context;
 
+    // name of the context acquired from the CamelContextService, the shared default context when null
+    private String camelContextName;
+    // whether the context was acquired from the CamelContextService and has to be released on close
+    private boolean registryContext;
+
+    // created on first use and kept for the life of the handler, it owns a cache of producers
+    private ProducerTemplate template;
+
+    // resolved endpoints keyed by the computed uri, least recently used evicted first
+    private final Map<String, Endpoint> endpoints;
+    private final AtomicLong endpointCacheHits = new AtomicLong();
+    private final AtomicLong endpointCacheMisses = new AtomicLong();
+
+    // set in async mode, the work items are then completed when the exchange finishes
+    private RuntimeManager runtimeManager;
+    private Semaphore asyncPermits;
+    private TransactionManager transactionManager;
+
+    protected AbstractCamelWorkitemHandler() {
+        int endpointCacheSize = Integer.getInteger(ENDPOINT_CACHE_SIZE, 100);
+        this.endpoints = new LinkedHashMap<String, Endpoint>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Endpoint> eldest) {
+                return size() > endpointCacheSize;
+            }
+        };
+    }
+
     public void executeWorkItem(WorkItem workItem,
                                 WorkItemManager manager) {
         try {
             RequiredParameterValidator.validate(this.getClass(),
                                                 workItem);
 
-            manager.completeWorkItem(workItem.getId(),
-                                     send(workItem));
+            if (runtimeManager != null) {
+                sendAsync(workItem);
+            } else {
+                manager.completeWorkItem(workItem.getId(),
+                                         send(workItem));
+            }
         } catch (Exception e) {
             logger.error("Error executing workitem: " + e.getMessage());
             handleException(e);
         }
     }
 
+    /**
+     * Switches the handler to the async mode: {@link #executeWorkItem(WorkItem, WorkItemManager)} returns as soon as
+     * the exchange is handed to Camel and the work item is completed, or aborted on failure, through the runtime
+     * manager when the exchange finishes. The exchange is sent once the transaction that executes the work item commits,
+     * so the completion never runs ahead of it, and not at all when it rolls back. At most <code>maxConcurrency</code>
+     * exchanges are in flight, further work items fail right away through {@link #handleException(Throwable)}
+     * instead of holding the engine thread. The handler keeps using the shared default context unless a context
+     * name is given, e.g. the identifier of the runtime manager to isolate the deployment.
+     */
+    protected void enableAsync(RuntimeManager runtimeManager,
+                               int maxConcurrency) {
+        this.runtimeManager = runtimeManager;
+        this.asyncPermits = new Semaphore(maxConcurrency);
+    }
+
+    protected void enableAsync(RuntimeManager runtimeManager) {
+        enableAsync(runtimeManager,
+                    Integer.getInteger(ASYNC_MAX_CONCURRENCY, 100));
+    }
+
     private Map<String, Object> send(WorkItem workItem) throws URISyntaxException {
-        if (context == null) {
-            context = CamelContextService.getInstance();
-        }
-        ProducerTemplate template = context.createProducerTemplate();
+        ProducerTemplate template = getProducerTemplate();
 
         Map<String, Object> params = new HashMap<String, Object>(workItem.getParameters());
         // filtering out TaskName
         params.remove("TaskName");
+        Processor processor = mapToRequest(workItem,
+                                           params);
+        URI uri = uriConverter.toURI(params);
+        Endpoint endpoint = getEndpoint(uri.toString());
+
+        Exchange exchange = template.send(endpoint,
+                                          processor);
+        return this.responseMapper.mapFromResponse(exchange);
+    }
+
+    private Processor mapToRequest(WorkItem workItem,
+                                   Map<String, Object> params) {
         Processor processor = requestMapper.mapToRequest(params);
+        long processInstanceId = workItem.getProcessInstanceId();
+        return exchange -> {
+            // lets the response mapper spool the body of the process instance to its own directory
+            exchange.setProperty(StreamResponsePayloadMapper.PROCESS_INSTANCE_ID,
+                                 processInstanceId);
+            processor.process(exchange);
+        };
+    }
+
+    private void sendAsync(WorkItem workItem) throws URISyntaxException {
+        ProducerTemplate template = getProducerTemplate();
+
+        Map<String, Object> params = new HashMap<String, Object>(workItem.getParameters());
+        // filtering out TaskName
+        params.remove("TaskName");
+        Processor processor = mapToRequest(workItem,
+                                           params);
         URI uri = uriConverter.toURI(params);
-        String s;
+        Endpoint endpoint = getEndpoint(uri.toString());
+
+        long processInstanceId = workItem.getProcessInstanceId();
+        long workItemId = workItem.getId();
+        if (!asyncPermits.tryAcquire()) {
+            throw new IllegalStateException("Too many exchanges in flight, work item " + workItemId + " is not sent");
+        }
+        try {
+            afterCommit(workItemId,
+                        () -> sendAsync(template,
+                                        endpoint,
+                                        processor,
+                                        processInstanceId,
+                                        workItemId));
+        } catch (RuntimeException e) {
+            asyncPermits.release();
+            throw e;
+        }
+    }
+
+    private void sendAsync(ProducerTemplate template,
+                           Endpoint endpoint,
+                           Processor processor,
+                           long processInstanceId,
+                           long workItemId) {
         try {
-            s = URLDecoder.decode(uri.toString(),
-                                  "UTF-8");
+            template.asyncCallback(endpoint,
+                                   processor,
+                                   new Synchronization() {
+                                       @Override
+                                       public void onComplete(Exchange exchange) {
+                                           completeAsync(processInstanceId,
+                                                         workItemId,
+                                                         exchange);
+                                       }
+
+                                       @Override
+                                       public void onFailure(Exchange exchange) {
+                                           completeAsync(processInstanceId,
+                                                         workItemId,
+                                                         exchange);
+                                       }
+                                   });
+        } catch (RuntimeException e) {
+            asyncPermits.release();
+            logger.error("Unable to send the exchange of work item {}, aborting it",
+                         workItemId,
+                         e);
+            abortAsync(processInstanceId,
+                       workItemId);
+        }
+    }
+
+    /**
+     * Runs the action once the current transaction commits, or right away when there is no transaction.
+     * The permit taken for the work item is given back when the transaction rolls back.
+     */
+    private void afterCommit(long workItemId,
+                             Runnable action) {
+        TransactionManager tm = getTransactionManager();
+        if (tm.getStatus() != TransactionManager.STATUS_ACTIVE) {
+            action.run();
+            return;
+        }
+        tm.registerTransactionSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == TransactionManager.STATUS_COMMITTED) {
+                    action.run();
+                } else {
+                    logger.debug("Transaction of work item {} rolled back, the exchange is not sent",
+                                 workItemId);
+                    asyncPermits.release();
+                }
+            }
+        });
+    }
+
+    protected TransactionManager getTransactionManager() {
+        if (transactionManager == null) {
+            transactionManager = TransactionManagerFactory.get().newTransactionManager();
+        }
+        return transactionManager;
+    }
+
+    // for testing
+    void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    int getAvailableAsyncPermits() {
+        return asyncPermits.availablePermits();
+    }
+
+    private void abortAsync(long processInstanceId,
+                            long workItemId) {
+        RuntimeEngine engine = runtimeManager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+        try {
+            engine.getKieSession().getWorkItemManager().abortWorkItem(workItemId);
+        } catch (Exception e) {
+            logger.error("Unable to abort work item {} of process instance {}",
+                         workItemId,
+                         processInstanceId,
+                         e);
+        } finally {
+            runtimeManager.disposeRuntimeEngine(engine);
+        }
+    }
+
+    private void completeAsync(long processInstanceId,
+                               long workItemId,
+                               Exchange exchange) {
+        asyncPermits.release();
+        RuntimeEngine engine = runtimeManager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+        try {
+            WorkItemManager workItemManager = engine.getKieSession().getWorkItemManager();
+            if (exchange.isFailed()) {
+                logger.error("Exchange of work item {} failed, aborting it",
+                             workItemId,
+                             exchange.getException());
+                workItemManager.abortWorkItem(workItemId);
+            } else {
+                workItemManager.completeWorkItem(workItemId,
+                                                 responseMapper.mapFromResponse(exchange));
+            }
+        } catch (Exception e) {
+            logger.error("Unable to complete work item {} of process instance {}",
+                         workItemId,
+                         processInstanceId,
+                         e);
+        } finally {
+            runtimeManager.disposeRuntimeEngine(engine);
+        }
+    }
+
+    private synchronized ProducerTemplate getProducerTemplate() {
+        if (context == null) {
+            context = CamelContextService.acquire(camelContextName != null ? camelContextName : CamelContextService.DEFAULT_CONTEXT);
+            registryContext = true;
+        }
+        if (template == null) {
+            Integer producerCacheSize = Integer.getInteger(PRODUCER_CACHE_SIZE);
+            // without an explicit size the template uses the producer cache size of the context
+            template = producerCacheSize != null ? context.createProducerTemplate(producerCacheSize) : context.createProducerTemplate();
+        }
+        return template;
+    }
+
+    /**
+     * Uses the context with the given name (e.g. a deployment id or a profile) from the {@link CamelContextService}
+     * instead of the shared default one. Must be set before the first work item is executed.
+     */
+    public synchronized void setCamelContextName(String camelContextName) {
+        this.camelContextName = camelContextName;
+    }
+
+    public synchronized String getCamelContextName() {
+        return camelContextName;
+    }
+
+    private Endpoint getEndpoint(String uri) {
+        Endpoint endpoint;
+        synchronized (endpoints) {
+            endpoint = endpoints.get(uri);
+        }
+        if (endpoint != null) {
+            endpointCacheHits.incrementAndGet();
+            return endpoint;
+        }
+        endpointCacheMisses.incrementAndGet();
+        String decoded;
+        try {
+            decoded = URLDecoder.decode(uri,
+                                        "UTF-8");
         } catch (UnsupportedEncodingException e) {
-            s = uri.toString();
+            decoded = uri;
         }
-        Endpoint endpoint = context.getEndpoint(s);
+        endpoint = context.getEndpoint(decoded);
+        synchronized (endpoints) {
+            endpoints.put(uri,
+                          endpoint);
+        }
+        return endpoint;
+    }
 
-        Exchange exchange = template.send(endpoint,
-                                          processor);
-        return this.responseMapper.mapFromResponse(exchange);
+    public int getEndpointCacheSize() {
+        synchronized (endpoints) {
+            return endpoints.size();
+        }
+    }
+
+    public long getEndpointCacheHits() {
+        return endpointCacheHits.get();
+    }
+
+    public long getEndpointCacheMisses() {
+        return endpointCacheMisses.get();
+    }
+
+    /**
+     * @return number of producers cached by the producer template of the handler
+     */
+    public synchronized int getProducerCacheSize() {
+        return template != null ? template.getCurrentCacheSize() : 0;
     }
 
     public void abortWorkItem(WorkItem workItem,
@@ -90,7 +380,40 @@ public abstract class AbstractCamelWorkitemHandler extends AbstractLogOrThrowWor
         // Do nothing, this work item cannot be aborted
     }
 
-    protected void setCamelContext(CamelContext camelContext) {
+    protected synchronized void setCamelContext(CamelContext camelContext) {
+        stopProducerTemplate();
+        releaseContext();
         this.context = camelContext;
+        synchronized (endpoints) {
+            endpoints.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        stopProducerTemplate();
+        releaseContext();
+        synchronized (endpoints) {
+            endpoints.clear();
+        }
+    }
+
+    private void releaseContext() {
+        if (registryContext) {
+            CamelContextService.release(camelContextName != null ? camelContextName : CamelContextService.DEFAULT_CONTEXT);
+            context = null;
+            registryContext = false;
+        }
+    }
+
+    private void stopProducerTemplate() {
+        if (template != null) {
+            try {
+                template.stop();
+            } catch (Exception e) {
+                logger.warn("Unable to stop the producer template", e);
+            }
+            template = null;
+        }
     }
 }
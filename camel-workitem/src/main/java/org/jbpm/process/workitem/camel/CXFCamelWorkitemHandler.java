@@ -27,6 +27,7 @@ import org.jbpm.process.workitem.core.util.WidResult;
 import org.jbpm.process.workitem.core.util.service.WidAction;
 import org.jbpm.process.workitem.core.util.service.WidAuth;
 import org.jbpm.process.workitem.core.util.service.WidService;
+import org.kie.api.runtime.manager.RuntimeManager;
 
 @Wid(widfile = "CamelCXFConnector.wid", name = "CamelCXFConnector",
         displayName = "CamelCXFConnector",
@@ -68,4 +69,36 @@ public class CXFCamelWorkitemHandler extends AbstractCamelWorkitemHandler {
                                                       headers);
         this.responseMapper = new ResponsePayloadMapper();
     }
+
+    /**
+     * Uses the context with the given name from the {@link CamelContextService} instead of the shared default one.
+     */
+    public CXFCamelWorkitemHandler(String camelContextName) {
+        this();
+        setCamelContextName(camelContextName);
+    }
+
+    /**
+     * Creates a handler in async mode, the SOAP calls do not block the engine thread
+     * and the work items are completed through the runtime manager when the calls return.
+     */
+    public CXFCamelWorkitemHandler(RuntimeManager runtimeManager) {
+        this();
+        enableAsync(runtimeManager);
+    }
+
+    public CXFCamelWorkitemHandler(Set<String> headers,
+                                   RuntimeManager runtimeManager) {
+        this(headers);
+        enableAsync(runtimeManager);
+    }
+
+    /**
+     * Creates a handler in async mode using the context with the given name from the {@link CamelContextService}.
+     */
+    public CXFCamelWorkitemHandler(String camelContextName,
+                                   RuntimeManager runtimeManager) {
+        this(camelContextName);
+        enableAsync(runtimeManager);
+    }
 }
@@ -15,23 +15,138 @@
  */
 package org.jbpm.process.workitem.camel;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
 import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.spi.ThreadPoolProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Registry of the Camel contexts used by the camel work item handlers. Contexts are created by name
+ * (a deployment id or a named profile), so noisy deployments can be isolated in their own context,
+ * and are reference counted: a named context is stopped when the last handler using it is closed. The default context
+ * is shared with the callers of {@link #getInstance()} and is never stopped.
+ * <p>
+ * Each context is configured from the system properties <code>org.jbpm.process.workitem.camel.context.[name.]&lt;option&gt;</code>,
+ * the named value taking precedence over the global one, with the options <code>poolSize</code>, <code>maxPoolSize</code>
+ * and <code>maxQueueSize</code> of the default thread pool profile, <code>endpointCacheSize</code>, <code>producerCacheSize</code>
+ * and <code>spoolThreshold</code>, the size in bytes above which stream bodies are spooled to disk.
+ */
 public class CamelContextService {
 
-    private static final CamelContext INSTANCE;
+    private static final Logger logger = LoggerFactory.getLogger(CamelContextService.class);
+
+    public static final String DEFAULT_CONTEXT = "default";
+
+    private static final String CONFIG_PREFIX = "org.jbpm.process.workitem.camel.context.";
+
+    private static final Map<String, Entry> contexts = new HashMap<>();
+
+    /**
+     * @return the context shared by the handlers that do not use a named context, without registering a reference to it
+     */
+    public static synchronized CamelContext getInstance() {
+        return getEntry(DEFAULT_CONTEXT).context;
+    }
 
-    static {
+    /**
+     * Returns the context with the given name, creating and starting it when needed, and registers a new reference to it.
+     */
+    public static synchronized CamelContext acquire(String name) {
+        Entry entry = getEntry(name);
+        entry.references++;
+        return entry.context;
+    }
+
+    private static Entry getEntry(String name) {
+        Entry entry = contexts.get(name);
+        if (entry == null) {
+            entry = new Entry(createContext(name));
+            contexts.put(name, entry);
+            logger.debug("Camel context {} started", name);
+        }
+        return entry;
+    }
+
+    /**
+     * Drops a reference to the context with the given name, stopping it when it was the last one,
+     * unless it is the default context.
+     */
+    public static synchronized void release(String name) {
+        Entry entry = contexts.get(name);
+        if (entry == null || entry.references == 0 || --entry.references > 0 || DEFAULT_CONTEXT.equals(name)) {
+            return;
+        }
+        contexts.remove(name);
         try {
-            INSTANCE = new DefaultCamelContext();
-            INSTANCE.start();
+            entry.context.stop();
+            logger.debug("Camel context {} stopped", name);
         } catch (Exception e) {
-            throw new RuntimeException("Exception starting Camel context.");
+            logger.warn("Unable to stop Camel context {}", name, e);
         }
     }
 
-    public static CamelContext getInstance() {
-        return INSTANCE;
+    /**
+     * @return number of handlers currently using the context with the given name
+     */
+    public static synchronized int getReferenceCount(String name) {
+        Entry entry = contexts.get(name);
+        return entry != null ? entry.references : 0;
+    }
+
+    private static CamelContext createContext(String name) {
+        try {
+            DefaultCamelContext context = new DefaultCamelContext();
+            context.setName("jbpm-" + name);
+            ThreadPoolProfile profile = context.getExecutorServiceManager().getDefaultThreadPoolProfile();
+            Integer poolSize = getOption(name, "poolSize");
+            if (poolSize != null) {
+                profile.setPoolSize(poolSize);
+            }
+            Integer maxPoolSize = getOption(name, "maxPoolSize");
+            if (maxPoolSize != null) {
+                profile.setMaxPoolSize(maxPoolSize);
+            }
+            Integer maxQueueSize = getOption(name, "maxQueueSize");
+            if (maxQueueSize != null) {
+                profile.setMaxQueueSize(maxQueueSize);
+            }
+            Integer endpointCacheSize = getOption(name, "endpointCacheSize");
+            if (endpointCacheSize != null) {
+                context.getGlobalOptions().put(Exchange.MAXIMUM_ENDPOINT_CACHE_SIZE, endpointCacheSize.toString());
+            }
+            Integer producerCacheSize = getOption(name, "producerCacheSize");
+            if (producerCacheSize != null) {
+                context.getGlobalOptions().put(Exchange.MAXIMUM_CACHE_POOL_SIZE, producerCacheSize.toString());
+            }
+            Integer spoolThreshold = getOption(name, "spoolThreshold");
+            if (spoolThreshold != null) {
+                context.setStreamCaching(true);
+                context.getStreamCachingStrategy().setSpoolThreshold(spoolThreshold);
+            }
+            context.start();
+            return context;
+        } catch (Exception e) {
+            throw new RuntimeException("Exception starting Camel context " + name + ".", e);
+        }
+    }
+
+    private static Integer getOption(String name, String option) {
+        Integer value = Integer.getInteger(CONFIG_PREFIX + name + "." + option);
+        return value != null ? value : Integer.getInteger(CONFIG_PREFIX + option);
+    }
+
+    private static class Entry {
+
+        private final CamelContext context;
+        private int references;
+
+        private Entry(CamelContext context) {
+            this.context = context;
+        }
     }
 }
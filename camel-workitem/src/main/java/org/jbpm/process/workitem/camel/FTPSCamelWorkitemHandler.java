@@ -16,7 +16,7 @@
 package org.jbpm.process.workitem.camel;
 
 import org.jbpm.process.workitem.camel.request.FTPRequestPayloadMapper;
-import org.jbpm.process.workitem.camel.response.ResponsePayloadMapper;
+import org.jbpm.process.workitem.camel.response.StreamResponsePayloadMapper;
 import org.jbpm.process.workitem.camel.uri.FTPURIMapper;
 import org.jbpm.process.workitem.core.util.Wid;
 import org.jbpm.process.workitem.core.util.WidMavenDepends;
@@ -33,6 +33,7 @@ import org.jbpm.process.workitem.core.util.service.WidService;
         icon = "CamelFTPSConnector.png",
         parameters = {
                 @WidParameter(name = "payload"),
+                @WidParameter(name = "payloadFile"),
                 @WidParameter(name = "hostName"),
                 @WidParameter(name = "userName"),
                 @WidParameter(name = "password"),
@@ -54,6 +55,14 @@ public class FTPSCamelWorkitemHandler extends AbstractCamelWorkitemHandler {
     public FTPSCamelWorkitemHandler() {
         this.uriConverter = new FTPURIMapper("ftps");
         this.requestMapper = new FTPRequestPayloadMapper("payload");
-        this.responseMapper = new ResponsePayloadMapper();
+        this.responseMapper = new StreamResponsePayloadMapper();
+    }
+
+    /**
+     * Uses the context with the given name from the {@link CamelContextService} instead of the shared default one.
+     */
+    public FTPSCamelWorkitemHandler(String camelContextName) {
+        this();
+        setCamelContextName(camelContextName);
     }
 }
@@ -17,8 +17,8 @@ package org.jbpm.process.workitem.camel;
 
 import java.util.Set;
 
-import org.jbpm.process.workitem.camel.request.RequestPayloadMapper;
-import org.jbpm.process.workitem.camel.response.ResponsePayloadMapper;
+import org.jbpm.process.workitem.camel.request.StreamRequestPayloadMapper;
+import org.jbpm.process.workitem.camel.response.StreamResponsePayloadMapper;
 import org.jbpm.process.workitem.camel.uri.FileURIMapper;
 import org.jbpm.process.workitem.core.util.Wid;
 import org.jbpm.process.workitem.core.util.WidMavenDepends;
@@ -52,14 +52,22 @@ public class FileCamelWorkitemHandler extends AbstractCamelWorkitemHandler {
 
     public FileCamelWorkitemHandler() {
         this.uriConverter = new FileURIMapper();
-        this.requestMapper = new RequestPayloadMapper("payload");
-        this.responseMapper = new ResponsePayloadMapper();
+        this.requestMapper = new StreamRequestPayloadMapper("payload");
+        this.responseMapper = new StreamResponsePayloadMapper();
+    }
+
+    /**
+     * Uses the context with the given name from the {@link CamelContextService} instead of the shared default one.
+     */
+    public FileCamelWorkitemHandler(String camelContextName) {
+        this();
+        setCamelContextName(camelContextName);
     }
 
     public FileCamelWorkitemHandler(Set<String> headers) {
         this.uriConverter = new FileURIMapper();
-        this.requestMapper = new RequestPayloadMapper("payload",
-                                                      headers);
-        this.responseMapper = new ResponsePayloadMapper();
+        this.requestMapper = new StreamRequestPayloadMapper("payload",
+                                                            headers);
+        this.responseMapper = new StreamResponsePayloadMapper();
     }
 }
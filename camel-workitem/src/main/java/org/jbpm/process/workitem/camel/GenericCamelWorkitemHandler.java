@@ -26,6 +26,7 @@ import org.jbpm.process.workitem.core.util.WidParameter;
 import org.jbpm.process.workitem.core.util.WidResult;
 import org.jbpm.process.workitem.core.util.service.WidAction;
 import org.jbpm.process.workitem.core.util.service.WidService;
+import org.kie.api.runtime.manager.RuntimeManager;
 
 @Wid(widfile = "CamelGenericConnector.wid", name = "CamelGenericConnector",
         displayName = "CamelGenericConnector",
@@ -70,4 +71,40 @@ public class GenericCamelWorkitemHandler extends AbstractCamelWorkitemHandler {
                                                       headers);
         this.responseMapper = new ResponsePayloadMapper();
     }
+
+    /**
+     * Uses the context with the given name from the {@link CamelContextService} instead of the shared default one.
+     */
+    public GenericCamelWorkitemHandler(String schema,
+                                       String pathLocation,
+                                       String camelContextName) {
+        this(schema,
+             pathLocation);
+        setCamelContextName(camelContextName);
+    }
+
+    /**
+     * Creates a handler in async mode, the work items are completed through the runtime manager
+     * when the exchanges finish.
+     */
+    public GenericCamelWorkitemHandler(String schema,
+                                       String pathLocation,
+                                       RuntimeManager runtimeManager) {
+        this(schema,
+             pathLocation);
+        enableAsync(runtimeManager);
+    }
+
+    /**
+     * Creates a handler in async mode using the context with the given name from the {@link CamelContextService}.
+     */
+    public GenericCamelWorkitemHandler(String schema,
+                                       String pathLocation,
+                                       String camelContextName,
+                                       RuntimeManager runtimeManager) {
+        this(schema,
+             pathLocation,
+             camelContextName);
+        enableAsync(runtimeManager);
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.camel;
+
+import java.io.File;
+
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.workitem.camel.response.StreamResponsePayloadMapper;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+
+/**
+ * Deletes the response bodies spooled by the {@link StreamResponsePayloadMapper} for a process instance once
+ * it completes or is aborted, after the transaction commits so a rolled back instance keeps its files.
+ * It is registered as a process event listener of the session, e.g. in the deployment descriptor.
+ */
+public class SpooledFilesCleanupListener extends DefaultProcessEventListener {
+
+    private final File spoolDirectory;
+    private TransactionManager transactionManager;
+
+    public SpooledFilesCleanupListener() {
+        this(null);
+    }
+
+    /**
+     * @param spoolDirectory directory given to the response mappers, null to use the default one
+     */
+    public SpooledFilesCleanupListener(File spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        long processInstanceId = event.getProcessInstance().getId();
+        TransactionManager tm = getTransactionManager();
+        if (tm.getStatus() != TransactionManager.STATUS_ACTIVE) {
+            StreamResponsePayloadMapper.deleteSpooledFiles(spoolDirectory,
+                                                           processInstanceId);
+            return;
+        }
+        tm.registerTransactionSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == TransactionManager.STATUS_COMMITTED) {
+                    StreamResponsePayloadMapper.deleteSpooledFiles(spoolDirectory,
+                                                                   processInstanceId);
+                }
+            }
+        });
+    }
+
+    protected TransactionManager getTransactionManager() {
+        if (transactionManager == null) {
+            transactionManager = TransactionManagerFactory.get().newTransactionManager();
+        }
+        return transactionManager;
+    }
+
+    // for testing
+    void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+}
@@ -18,7 +18,7 @@ package org.jbpm.process.workitem.camel.request;
 import java.util.Arrays;
 import java.util.HashSet;
 
-public class FTPRequestPayloadMapper extends RequestPayloadMapper {
+public class FTPRequestPayloadMapper extends StreamRequestPayloadMapper {
 
     private static final String[] MESSAGE_HEADERS = new String[]{"CamelFileName", "CamelFileNameProduced", "CamelFileBatchIndex", "CamelFileBatchSize", "CamelFileHost",
             "CamelFileLocalWorkPath"};
@@ -44,7 +44,7 @@ public class RequestPayloadMapper implements RequestMapper {
     }
 
     public Processor mapToRequest(Map<String, Object> params) {
-        Object request = params.remove(requestLocation);
+        Object request = getPayload(params);
 
         Map<String, Object> headers = new HashMap<String, Object>();
 
@@ -60,6 +60,13 @@ public class RequestPayloadMapper implements RequestMapper {
                                     headers);
     }
 
+    /**
+     * Removes the payload of the request from the params.
+     */
+    protected Object getPayload(Map<String, Object> params) {
+        return params.remove(requestLocation);
+    }
+
     protected class RequestProcessor implements Processor {
 
         private Object payload;
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.camel.request;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Request mapper passing files and streams to the exchange without loading them in memory.
+ * The payload can be given as an {@link java.io.InputStream}, a {@link File} or a {@link Path}, or as the
+ * location of a file in the <code>&lt;requestLocation&gt;File</code> parameter (e.g. <code>payloadFile</code>),
+ * the endpoint then reads the content while sending it.
+ */
+public class StreamRequestPayloadMapper extends RequestPayloadMapper {
+
+    private final String fileLocation;
+
+    public StreamRequestPayloadMapper(String requestLocation) {
+        this(requestLocation,
+             new HashSet<String>());
+    }
+
+    public StreamRequestPayloadMapper(String requestLocation,
+                                      Set<String> headerLocations) {
+        super(requestLocation,
+              headerLocations);
+        this.fileLocation = requestLocation + "File";
+    }
+
+    @Override
+    protected Object getPayload(Map<String, Object> params) {
+        Object payload = super.getPayload(params);
+        Object file = params.remove(fileLocation);
+        if (payload == null && file != null) {
+            payload = file instanceof String ? new File((String) file) : file;
+        }
+        if (payload instanceof Path) {
+            return ((Path) payload).toFile();
+        }
+        return payload;
+    }
+}
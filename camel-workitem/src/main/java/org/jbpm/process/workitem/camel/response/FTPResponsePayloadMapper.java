@@ -18,7 +18,7 @@ package org.jbpm.process.workitem.camel.response;
 import java.util.Arrays;
 import java.util.HashSet;
 
-public class FTPResponsePayloadMapper extends ResponsePayloadMapper {
+public class FTPResponsePayloadMapper extends StreamResponsePayloadMapper {
 
     private static final String[] MESSAGE_HEADERS = new String[]{"CamelFtpReplyCode", "CamelFtpReplyString"};
 
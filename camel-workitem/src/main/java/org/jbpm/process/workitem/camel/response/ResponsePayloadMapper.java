@@ -48,7 +48,8 @@ public class ResponsePayloadMapper implements ResponseMapper {
         Map<String, Object> results = new HashMap<String, Object>();
         if (exchange.hasOut()) {
             Message out = exchange.getOut();
-            Object response = out.getBody();
+            Object response = toResult(exchange,
+                                       out.getBody());
             results.put(responseLocation,
                         response);
             Map<String, Object> headerValues = out.getHeaders();
@@ -59,5 +60,13 @@ public class ResponsePayloadMapper implements ResponseMapper {
         }
         return results;
     }
+
+    /**
+     * Converts the body of the response to the value stored in the work item results.
+     */
+    protected Object toResult(Exchange exchange,
+                              Object body) {
+        return body;
+    }
 }
 
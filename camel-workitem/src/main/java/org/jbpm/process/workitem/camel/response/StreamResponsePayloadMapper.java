@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.camel.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.RuntimeCamelException;
+import org.apache.camel.StreamCache;
+import org.apache.camel.WrappedFile;
+
+/**
+ * Response mapper keeping streamed bodies out of the work item results. A stream body smaller than the spool
+ * threshold is returned as a byte array, a larger one is spooled to a file in the spool directory and only the
+ * {@link File} handle is returned. Bodies referring to a local file are returned as the {@link File} itself.
+ * <p>
+ * The bodies of the exchanges sent by the handlers are spooled to a sub directory named after the process
+ * instance, which is deleted by {@link #deleteSpooledFiles(File, long)}. Registering the
+ * {@link org.jbpm.process.workitem.camel.SpooledFilesCleanupListener} on the session does it once the process
+ * instance completes or is aborted, otherwise the process owns the files and has to delete them.
+ * <p>
+ * The threshold defaults to the spool threshold of the stream caching strategy of the Camel context and the
+ * directory to the <code>org.jbpm.process.workitem.camel.spoolDirectory</code> system property or the temporary directory.
+ */
+public class StreamResponsePayloadMapper extends ResponsePayloadMapper {
+
+    public static final String SPOOL_DIRECTORY = "org.jbpm.process.workitem.camel.spoolDirectory";
+    /**
+     * Exchange property holding the id of the process instance the exchange is sent for.
+     */
+    public static final String PROCESS_INSTANCE_ID = "org.jbpm.process.workitem.camel.processInstanceId";
+
+    private final long spoolThreshold;
+    private final File spoolDirectory;
+
+    public StreamResponsePayloadMapper() {
+        this("response");
+    }
+
+    public StreamResponsePayloadMapper(String responseLocation) {
+        this(responseLocation,
+             new HashSet<String>());
+    }
+
+    public StreamResponsePayloadMapper(String responseLocation,
+                                       Set<String> headerLocations) {
+        this(responseLocation,
+             headerLocations,
+             -1,
+             null);
+    }
+
+    /**
+     * @param spoolThreshold size in bytes above which the body is spooled to disk, a negative value to use the threshold of the context
+     * @param spoolDirectory directory of the spooled bodies, null to use the default one
+     */
+    public StreamResponsePayloadMapper(String responseLocation,
+                                       Set<String> headerLocations,
+                                       long spoolThreshold,
+                                       File spoolDirectory) {
+        super(responseLocation,
+              headerLocations);
+        this.spoolThreshold = spoolThreshold;
+        this.spoolDirectory = spoolDirectory != null ? spoolDirectory : getDefaultSpoolDirectory();
+    }
+
+    /**
+     * Deletes the bodies spooled for the given process instance.
+     * @param spoolDirectory directory of the spooled bodies, null to use the default one
+     */
+    public static void deleteSpooledFiles(File spoolDirectory,
+                                          long processInstanceId) {
+        File directory = new File(spoolDirectory != null ? spoolDirectory : getDefaultSpoolDirectory(),
+                                  String.valueOf(processInstanceId));
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    private static File getDefaultSpoolDirectory() {
+        return new File(System.getProperty(SPOOL_DIRECTORY, System.getProperty("java.io.tmpdir")));
+    }
+
+    @Override
+    protected Object toResult(Exchange exchange,
+                              Object body) {
+        if (body instanceof WrappedFile && ((WrappedFile<?>) body).getFile() instanceof File) {
+            return ((WrappedFile<?>) body).getFile();
+        }
+        if (!(body instanceof InputStream || body instanceof StreamCache)) {
+            return body;
+        }
+        try (InputStream in = exchange.getContext().getTypeConverter().mandatoryConvertTo(InputStream.class,
+                                                                                          exchange,
+                                                                                          body)) {
+            return spool(in,
+                         exchange.getProperty(PROCESS_INSTANCE_ID, Long.class),
+                         spoolThreshold >= 0 ? spoolThreshold : exchange.getContext().getStreamCachingStrategy().getSpoolThreshold());
+        } catch (Exception e) {
+            throw new RuntimeCamelException("Unable to read the response body", e);
+        }
+    }
+
+    private Object spool(InputStream in,
+                         Long processInstanceId,
+                         long threshold) throws IOException {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            memory.write(buffer, 0, n);
+            if (threshold > 0 && memory.size() > threshold) {
+                return spoolToFile(memory,
+                                   in,
+                                   processInstanceId != null ? new File(spoolDirectory, processInstanceId.toString()) : spoolDirectory,
+                                   buffer);
+            }
+        }
+        return memory.toByteArray();
+    }
+
+    private File spoolToFile(ByteArrayOutputStream memory,
+                             InputStream in,
+                             File directory,
+                             byte[] buffer) throws IOException {
+        directory.mkdirs();
+        File file = File.createTempFile("camel-response-",
+                                        ".tmp",
+                                        directory);
+        try (OutputStream out = new FileOutputStream(file)) {
+            memory.writeTo(out);
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        return file;
+    }
+}
@@ -18,16 +18,30 @@ package org.jbpm.process.workitem.camel.uri;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.apache.camel.util.URISupport;
 
 public abstract class URIMapper {
 
+    public static final String URI_CACHE_SIZE = "org.jbpm.process.workitem.camel.uriCacheSize";
+
     private String schema;
 
+    // resolved uris keyed by the url and the options, least recently used evicted first
+    private final Map<UriKey, URI> uris;
+
     public URIMapper(String schema) {
         this.schema = schema;
+        int uriCacheSize = Integer.getInteger(URI_CACHE_SIZE, 256);
+        this.uris = new LinkedHashMap<UriKey, URI>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UriKey, URI> eldest) {
+                return size() > uriCacheSize;
+            }
+        };
     }
 
     public abstract URI toURI(Map<String, Object> params) throws URISyntaxException;
@@ -42,12 +56,43 @@ public abstract class URIMapper {
     protected URI prepareCamelUri(String schema,
                                   String path,
                                   Map<String, Object> params) throws URISyntaxException {
-        String url;
-        if (schema == null) {
-            url = path;
-        } else {
-            url = schema + "://" + path;
+        String url = schema == null ? path : schema + "://" + path;
+        // options holding mutable values could change after being cached, such uris are always built
+        if (!isCacheable(params)) {
+            return createUri(url,
+                             params);
+        }
+        // the lookup key refers to the options of the caller, they are only copied when a new uri is cached
+        UriKey key = new UriKey(url,
+                                params.isEmpty() ? null : params,
+                                hash(url,
+                                     params));
+        URI camelUri;
+        synchronized (uris) {
+            camelUri = uris.get(key);
+        }
+        if (camelUri == null) {
+            camelUri = createUri(url,
+                                 params);
+            synchronized (uris) {
+                uris.put(key.copy(),
+                         camelUri);
+            }
+        }
+        return camelUri;
+    }
+
+    /**
+     * @return number of resolved uris currently cached by this mapper
+     */
+    public int getUriCacheSize() {
+        synchronized (uris) {
+            return uris.size();
         }
+    }
+
+    private URI createUri(String url,
+                          Map<String, Object> params) throws URISyntaxException {
         URI camelUri;
         try {
             camelUri = new URI(URISupport.normalizeUri(url));
@@ -61,4 +106,59 @@ public abstract class URIMapper {
                                                  URISupport.createQueryString(params));
         }
     }
+
+    private static boolean isCacheable(Map<String, Object> params) {
+        for (Object value : params.values()) {
+            if (value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character || value instanceof Enum)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String url,
+                            Map<String, Object> params) {
+        return 31 * String.valueOf(url).hashCode() + params.hashCode();
+    }
+
+    private static final class UriKey {
+
+        private final String url;
+        private final Map<String, Object> params;
+        private final int hash;
+
+        UriKey(String url,
+               Map<String, Object> params,
+               int hash) {
+            this.url = url;
+            this.params = params;
+            this.hash = hash;
+        }
+
+        UriKey copy() {
+            return params == null ? this : new UriKey(url,
+                                                      new HashMap<>(params),
+                                                      hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof UriKey)) {
+                return false;
+            }
+            UriKey other = (UriKey) o;
+            return hash == other.hash
+                    && (url == null ? other.url == null : url.equals(other.url))
+                    && (params == null ? other.params == null : params.equals(other.params));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
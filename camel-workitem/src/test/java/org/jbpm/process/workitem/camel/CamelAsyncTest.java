@@ -0,0 +1,239 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.camel;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.drools.core.process.instance.WorkItem;
+import org.drools.core.process.instance.impl.DefaultWorkItemManager;
+import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.bpmn2.handler.WorkItemHandlerRuntimeException;
+import org.jbpm.test.AbstractBaseTest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.process.WorkItemManager;
+
+public class CamelAsyncTest extends AbstractBaseTest {
+
+    private static volatile CountDownLatch release;
+
+    private final BlockingQueue<String> completions = new LinkedBlockingQueue<>();
+    private final List<TransactionSynchronization> synchronizations = new ArrayList<>();
+    private int transactionStatus = TransactionManager.STATUS_NO_TRANSACTION;
+
+    private GenericCamelWorkitemHandler handler;
+
+    public void testMethod() throws InterruptedException {
+        release.await(10,
+                      TimeUnit.SECONDS);
+    }
+
+    public void failingMethod() {
+        throw new IllegalStateException("expected failure");
+    }
+
+    @Before
+    public void setup() {
+        release = new CountDownLatch(0);
+        System.setProperty(AbstractCamelWorkitemHandler.ASYNC_MAX_CONCURRENCY,
+                           "1");
+        try {
+            handler = new GenericCamelWorkitemHandler("class",
+                                                      "FQCN",
+                                                      runtimeManager());
+        } finally {
+            System.clearProperty(AbstractCamelWorkitemHandler.ASYNC_MAX_CONCURRENCY);
+        }
+        handler.setTransactionManager(transactionManager());
+    }
+
+    @After
+    public void cleanup() {
+        release.countDown();
+        handler.close();
+    }
+
+    @Test
+    public void testAsyncHandlerKeepsTheDefaultContext() {
+        Assert.assertNull(handler.getCamelContextName());
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkItemCompletedWhenExchangeFinishes() throws Exception {
+        execute(1,
+                "testMethod");
+
+        Assert.assertEquals("complete:1",
+                            completions.take());
+        awaitPermits(1);
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkItemAbortedWhenExchangeFails() throws Exception {
+        execute(1,
+                "failingMethod");
+
+        Assert.assertEquals("abort:1",
+                            completions.take());
+        awaitPermits(1);
+    }
+
+    @Test(timeout = 10000)
+    public void testExchangeSentOnlyAfterCommit() throws Exception {
+        transactionStatus = TransactionManager.STATUS_ACTIVE;
+        execute(1,
+                "testMethod");
+
+        Assert.assertEquals(1,
+                            synchronizations.size());
+        Assert.assertNull(completions.poll(200,
+                                           TimeUnit.MILLISECONDS));
+
+        synchronizations.get(0).afterCompletion(TransactionManager.STATUS_COMMITTED);
+        Assert.assertEquals("complete:1",
+                            completions.take());
+    }
+
+    @Test(timeout = 10000)
+    public void testPermitReleasedOnRollback() throws Exception {
+        transactionStatus = TransactionManager.STATUS_ACTIVE;
+        execute(1,
+                "testMethod");
+        Assert.assertEquals(0,
+                            handler.getAvailableAsyncPermits());
+
+        synchronizations.get(0).afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+
+        Assert.assertEquals(1,
+                            handler.getAvailableAsyncPermits());
+        Assert.assertNull(completions.poll(200,
+                                           TimeUnit.MILLISECONDS));
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkItemRejectedWhenNoPermitIsAvailable() throws Exception {
+        release = new CountDownLatch(1);
+        execute(1,
+                "testMethod");
+        try {
+            execute(2,
+                    "testMethod");
+            Assert.fail("Second work item must be rejected while the first exchange is in flight");
+        } catch (WorkItemHandlerRuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        release.countDown();
+        Assert.assertEquals("complete:1",
+                            completions.take());
+        awaitPermits(1);
+
+        execute(3,
+                "testMethod");
+        Assert.assertEquals("complete:3",
+                            completions.take());
+    }
+
+    private void execute(long workItemId,
+                         String method) {
+        WorkItem workItem = new WorkItemImpl();
+        workItem.setId(workItemId);
+        workItem.setParameter("FQCN",
+                              getClass().getCanonicalName());
+        workItem.setParameter("method",
+                              method);
+        handler.executeWorkItem(workItem,
+                                new DefaultWorkItemManager(null));
+    }
+
+    // the permit is given back right before the work item is completed
+    private void awaitPermits(int permits) throws InterruptedException {
+        while (handler.getAvailableAsyncPermits() != permits) {
+            Thread.sleep(10);
+        }
+    }
+
+    private TransactionManager transactionManager() {
+        return (TransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                           new Class[]{TransactionManager.class},
+                                                           (proxy, method, args) -> {
+                                                               switch (method.getName()) {
+                                                                   case "getStatus":
+                                                                       return transactionStatus;
+                                                                   case "registerTransactionSynchronization":
+                                                                       synchronizations.add((TransactionSynchronization) args[0]);
+                                                                       return null;
+                                                                   default:
+                                                                       return null;
+                                                               }
+                                                           });
+    }
+
+    private RuntimeManager runtimeManager() {
+        WorkItemManager workItemManager = proxy(WorkItemManager.class,
+                                                (name, args) -> {
+                                                    if ("completeWorkItem".equals(name)) {
+                                                        completions.add("complete:" + args[0]);
+                                                    } else if ("abortWorkItem".equals(name)) {
+                                                        completions.add("abort:" + args[0]);
+                                                    }
+                                                    return null;
+                                                });
+        KieSession kieSession = proxy(KieSession.class,
+                                      (name, args) -> "getWorkItemManager".equals(name) ? workItemManager : null);
+        RuntimeEngine engine = proxy(RuntimeEngine.class,
+                                     (name, args) -> "getKieSession".equals(name) ? kieSession : null);
+        return proxy(RuntimeManager.class,
+                     (name, args) -> {
+                         switch (name) {
+                             case "getRuntimeEngine":
+                                 return engine;
+                             case "getIdentifier":
+                                 return "camel-async-test";
+                             default:
+                                 return null;
+                         }
+                     });
+    }
+
+    private interface Answer {
+
+        Object answer(String method,
+                      Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T proxy(Class<T> type,
+                        Answer answer) {
+        return (T) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                          new Class[]{type},
+                                          (proxy, method, args) -> answer.answer(method.getName(),
+                                                                                 args));
+    }
+}
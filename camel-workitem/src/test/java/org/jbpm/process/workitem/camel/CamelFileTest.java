@@ -15,25 +15,36 @@
  */
 package org.jbpm.process.workitem.camel;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Proxy;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
 import org.apache.commons.io.FileUtils;
 import org.drools.core.process.instance.WorkItem;
 import org.drools.core.process.instance.impl.DefaultWorkItemManager;
 import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.workitem.camel.response.StreamResponsePayloadMapper;
 import org.jbpm.test.AbstractBaseTest;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.kie.api.KieBase;
+import org.kie.api.event.process.ProcessCompletedEvent;
 import org.kie.api.io.ResourceType;
 import org.kie.api.runtime.Environment;
 import org.kie.api.runtime.process.ProcessInstance;
@@ -135,6 +146,106 @@ public class CamelFileTest extends AbstractBaseTest {
                             testData);
     }
 
+    @Test
+    public void testSingleFileFromPath() throws IOException {
+        File source = new File(tempDir,
+                               "source_" + testFile.getName());
+        FileUtils.writeStringToFile(source,
+                                    "streamed-data",
+                                    StandardCharsets.UTF_8);
+        Set<String> headers = new HashSet<String>();
+        headers.add("CamelFileName");
+        FileCamelWorkitemHandler handler = new FileCamelWorkitemHandler(headers);
+        handler.setLogThrownException(true);
+
+        final WorkItem workItem = new WorkItemImpl();
+        workItem.setParameter("path",
+                              testDir.getAbsolutePath());
+        workItem.setParameter("payload",
+                              source.toPath());
+        workItem.setParameter("CamelFileName",
+                              testFile.getName());
+
+        handler.executeWorkItem(workItem,
+                                new DefaultWorkItemManager(null));
+
+        File target = new File(testDir,
+                               testFile.getName());
+        Assert.assertEquals("streamed-data",
+                            FileUtils.readFileToString(target, StandardCharsets.UTF_8));
+        source.delete();
+    }
+
+    @Test
+    public void testLargeResponseIsSpooled() throws IOException {
+        StreamResponsePayloadMapper mapper = new StreamResponsePayloadMapper("response",
+                                                                             new HashSet<String>(),
+                                                                             16,
+                                                                             testDir);
+        Exchange small = new DefaultExchange(new DefaultCamelContext());
+        small.getOut().setBody(new ByteArrayInputStream("small".getBytes(StandardCharsets.UTF_8)));
+        Exchange large = new DefaultExchange(new DefaultCamelContext());
+        large.getOut().setBody(new ByteArrayInputStream("larger than sixteen bytes".getBytes(StandardCharsets.UTF_8)));
+
+        Object smallResult = mapper.mapFromResponse(small).get("response");
+        Object largeResult = mapper.mapFromResponse(large).get("response");
+
+        Assert.assertArrayEquals("small".getBytes(StandardCharsets.UTF_8),
+                                 (byte[]) smallResult);
+        Assert.assertTrue(largeResult instanceof File);
+        Assert.assertEquals(testDir,
+                            ((File) largeResult).getParentFile());
+        Assert.assertEquals("larger than sixteen bytes",
+                            FileUtils.readFileToString((File) largeResult, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSpooledFilesAreDeletedAfterCommit() throws IOException {
+        StreamResponsePayloadMapper mapper = new StreamResponsePayloadMapper("response",
+                                                                             new HashSet<String>(),
+                                                                             16,
+                                                                             testDir);
+        Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+        exchange.setProperty(StreamResponsePayloadMapper.PROCESS_INSTANCE_ID,
+                             42L);
+        exchange.getOut().setBody(new ByteArrayInputStream("larger than sixteen bytes".getBytes(StandardCharsets.UTF_8)));
+        File spooled = (File) mapper.mapFromResponse(exchange).get("response");
+        Assert.assertEquals(new File(testDir,
+                                     "42"),
+                            spooled.getParentFile());
+
+        List<TransactionSynchronization> synchronizations = new ArrayList<>();
+        SpooledFilesCleanupListener listener = new SpooledFilesCleanupListener(testDir);
+        listener.setTransactionManager((TransactionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                                   new Class[]{TransactionManager.class},
+                                                                                   (proxy, method, args) -> {
+                                                                                       switch (method.getName()) {
+                                                                                           case "getStatus":
+                                                                                               return TransactionManager.STATUS_ACTIVE;
+                                                                                           case "registerTransactionSynchronization":
+                                                                                               synchronizations.add((TransactionSynchronization) args[0]);
+                                                                                               return null;
+                                                                                           default:
+                                                                                               return null;
+                                                                                       }
+                                                                                   }));
+        ProcessInstance processInstance = (ProcessInstance) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                                   new Class[]{ProcessInstance.class},
+                                                                                   (proxy, method, args) -> "getId".equals(method.getName()) ? 42L : null);
+        listener.afterProcessCompleted((ProcessCompletedEvent) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                                      new Class[]{ProcessCompletedEvent.class},
+                                                                                      (proxy, method, args) -> "getProcessInstance".equals(method.getName()) ? processInstance : null));
+        Assert.assertEquals(1,
+                            synchronizations.size());
+
+        synchronizations.get(0).afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+        Assert.assertTrue(spooled.exists());
+
+        synchronizations.get(0).afterCompletion(TransactionManager.STATUS_COMMITTED);
+        Assert.assertFalse(spooled.exists());
+        Assert.assertFalse(spooled.getParentFile().exists());
+    }
+
     private KieBase createBase() {
         KnowledgeBuilder kbuilder = KnowledgeBuilderFactory.newKnowledgeBuilder();
         kbuilder.add(ResourceFactory.newClassPathResource(PROCESS_DEFINITION),
@@ -15,6 +15,7 @@
  */
 package org.jbpm.process.workitem.camel;
 
+import org.apache.camel.CamelContext;
 import org.drools.core.process.instance.WorkItem;
 import org.drools.core.process.instance.impl.DefaultWorkItemManager;
 import org.drools.core.process.instance.impl.WorkItemImpl;
@@ -54,4 +55,79 @@ public class CamelGenericTest extends AbstractBaseTest {
 
         Assert.assertTrue(called);
     }
+
+    @Test
+    public void testEndpointIsResolvedOnce() {
+        GenericCamelWorkitemHandler handler = new GenericCamelWorkitemHandler("class",
+                                                                              "FQCN");
+        WorkItemManager manager = new DefaultWorkItemManager(null);
+        try {
+            for (int i = 0; i < 2; i++) {
+                final WorkItem workItem = new WorkItemImpl();
+                workItem.setParameter("FQCN",
+                                      getClass().getCanonicalName());
+                workItem.setParameter("method",
+                                      "testMethod");
+                handler.executeWorkItem(workItem,
+                                        manager);
+            }
+
+            Assert.assertTrue(called);
+            Assert.assertEquals(1,
+                                handler.getEndpointCacheSize());
+            Assert.assertEquals(1,
+                                handler.getEndpointCacheMisses());
+            Assert.assertEquals(1,
+                                handler.getEndpointCacheHits());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testNamedContextIsStoppedOnClose() {
+        GenericCamelWorkitemHandler handler = new GenericCamelWorkitemHandler("class",
+                                                                              "FQCN",
+                                                                              "isolated");
+
+        final WorkItem workItem = new WorkItemImpl();
+        workItem.setParameter("FQCN",
+                              getClass().getCanonicalName());
+        workItem.setParameter("method",
+                              "testMethod");
+        handler.executeWorkItem(workItem,
+                                new DefaultWorkItemManager(null));
+
+        Assert.assertTrue(called);
+        Assert.assertEquals(1,
+                            CamelContextService.getReferenceCount("isolated"));
+        handler.close();
+        Assert.assertEquals(0,
+                            CamelContextService.getReferenceCount("isolated"));
+    }
+
+    @Test
+    public void testDefaultContextIsNotStoppedOnClose() {
+        CamelContext shared = CamelContextService.getInstance();
+        int references = CamelContextService.getReferenceCount(CamelContextService.DEFAULT_CONTEXT);
+
+        GenericCamelWorkitemHandler handler = new GenericCamelWorkitemHandler("class",
+                                                                              "FQCN");
+        final WorkItem workItem = new WorkItemImpl();
+        workItem.setParameter("FQCN",
+                              getClass().getCanonicalName());
+        workItem.setParameter("method",
+                              "testMethod");
+        handler.executeWorkItem(workItem,
+                                new DefaultWorkItemManager(null));
+        Assert.assertEquals(references + 1,
+                            CamelContextService.getReferenceCount(CamelContextService.DEFAULT_CONTEXT));
+        handler.close();
+
+        Assert.assertEquals(references,
+                            CamelContextService.getReferenceCount(CamelContextService.DEFAULT_CONTEXT));
+        Assert.assertSame(shared,
+                          CamelContextService.getInstance());
+        Assert.assertTrue(shared.getStatus().isStarted());
+    }
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.camel.uri;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class URIMapperTest {
+
+    @Test
+    public void testResolvedUriIsCached() throws Exception {
+        JMSURIMapper mapper = new JMSURIMapper();
+
+        URI first = mapper.toURI(jmsOptions("orders"));
+        URI second = mapper.toURI(jmsOptions("orders"));
+        URI other = mapper.toURI(jmsOptions("invoices"));
+
+        Assert.assertEquals("jms://queue:orders?concurrentConsumers=5",
+                            first.toString());
+        Assert.assertSame(first,
+                          second);
+        Assert.assertEquals("jms://queue:invoices?concurrentConsumers=5",
+                            other.toString());
+        Assert.assertEquals(2,
+                            mapper.getUriCacheSize());
+    }
+
+    @Test
+    public void testMutableOptionsAreNotCached() throws Exception {
+        GenericURIMapper mapper = new GenericURIMapper("file");
+        Map<String, Object> options = new HashMap<>();
+        options.put("path",
+                    "/tmp");
+        options.put("list",
+                    new ArrayList<>());
+
+        mapper.toURI(options);
+
+        Assert.assertEquals(0,
+                            mapper.getUriCacheSize());
+    }
+
+    @Test
+    public void testCachedUriIsNotAffectedByLaterChangesOfTheOptions() throws Exception {
+        GenericURIMapper mapper = new GenericURIMapper("file");
+        Map<String, Object> options = new HashMap<>();
+        options.put("path",
+                    "/tmp");
+        options.put("fileName",
+                    "a.txt");
+
+        URI first = mapper.toURI(options);
+        options.put("path",
+                    "/tmp");
+        options.put("fileName",
+                    "b.txt");
+        URI second = mapper.toURI(options);
+
+        Assert.assertEquals("fileName=a.txt",
+                            first.getQuery());
+        Assert.assertEquals("fileName=b.txt",
+                            second.getQuery());
+        Assert.assertSame(first,
+                          mapper.toURI(fileOptions("a.txt")));
+    }
+
+    private Map<String, Object> fileOptions(String fileName) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("path",
+                    "/tmp");
+        options.put("fileName",
+                    fileName);
+        return options;
+    }
+
+    private Map<String, Object> jmsOptions(String destinationName) {
+        Map<String, Object> options = new HashMap<>();
+        options.put("queue",
+                    "true");
+        options.put("destinationName",
+                    destinationName);
+        options.put("concurrentConsumers",
+                    "5");
+        return options;
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.executesql;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time spent by an {@link ExecuteSqlWorkItemHandler} in each {@link Phase} of its statements, so a saturated
+ * connection pool can be told apart from a slow query or a large fetch. Each handler has its own MBean,
+ * <code>org.jbpm.process.workitem.executesql:type=ExecuteSqlWorkItemHandler,dataSource=...,id=...</code>,
+ * left out of JMX when <code>org.jbpm.process.workitem.executesql.jmx.enabled</code> is false.
+ */
+public class ExecuteSqlMetrics implements ExecuteSqlMetricsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecuteSqlMetrics.class);
+
+    private static final String JMX_DOMAIN = "org.jbpm.process.workitem.executesql";
+    private static final String JMX_ENABLED = "org.jbpm.process.workitem.executesql.jmx.enabled";
+
+    // unique per instance, identity hash codes may collide and hide a handler from JMX
+    private static final AtomicLong ids = new AtomicLong();
+
+    public enum Phase {
+        CONNECTION_WAIT,
+        PREPARE,
+        EXECUTE,
+        FETCH
+    }
+
+    private final String dataSourceName;
+    private final PhaseStatistics[] phases = new PhaseStatistics[Phase.values().length];
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private ObjectName objectName;
+
+    ExecuteSqlMetrics(String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new PhaseStatistics();
+        }
+    }
+
+    /**
+     * Records the duration of a phase started at <code>startNanos</code> (as given by {@link System#nanoTime()}).
+     * @return the current time, to be used as the start of the next phase
+     */
+    public long record(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        phases[phase.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    public void recordExecution(boolean failed) {
+        if (failed) {
+            errors.increment();
+        } else {
+            executions.increment();
+        }
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Override
+    public long getExecutionCount() {
+        return executions.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getAverageConnectionWaitMs() {
+        return phases[Phase.CONNECTION_WAIT.ordinal()].getAverageMs();
+    }
+
+    @Override
+    public double getMaxConnectionWaitMs() {
+        return phases[Phase.CONNECTION_WAIT.ordinal()].getMaxMs();
+    }
+
+    @Override
+    public double getAveragePrepareMs() {
+        return phases[Phase.PREPARE.ordinal()].getAverageMs();
+    }
+
+    @Override
+    public double getMaxPrepareMs() {
+        return phases[Phase.PREPARE.ordinal()].getMaxMs();
+    }
+
+    @Override
+    public double getAverageExecuteMs() {
+        return phases[Phase.EXECUTE.ordinal()].getAverageMs();
+    }
+
+    @Override
+    public double getMaxExecuteMs() {
+        return phases[Phase.EXECUTE.ordinal()].getMaxMs();
+    }
+
+    @Override
+    public double getAverageFetchMs() {
+        return phases[Phase.FETCH.ordinal()].getAverageMs();
+    }
+
+    @Override
+    public double getMaxFetchMs() {
+        return phases[Phase.FETCH.ordinal()].getMaxMs();
+    }
+
+    @Override
+    public void reset() {
+        executions.reset();
+        errors.reset();
+        for (PhaseStatistics phase : phases) {
+            phase.reset();
+        }
+    }
+
+    void register() {
+        if (!Boolean.parseBoolean(System.getProperty(JMX_ENABLED, "true"))) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=ExecuteSqlWorkItemHandler,dataSource=" + ObjectName.quote(String.valueOf(dataSourceName))
+                                                     + ",id=" + ids.incrementAndGet());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to register execute sql metrics for {} in JMX", dataSourceName, e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to unregister execute sql metrics for {} from JMX", dataSourceName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    private static class PhaseStatistics {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        double getAverageMs() {
+            long n = count.sum();
+            return n == 0 ? 0 : toMillis(totalNanos.sum()) / n;
+        }
+
+        double getMaxMs() {
+            return toMillis(maxNanos.get());
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
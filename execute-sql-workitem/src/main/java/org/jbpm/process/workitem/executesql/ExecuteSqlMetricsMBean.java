@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.executesql;
+
+/**
+ * JMX view of the executions of an execute sql work item handler, timed per phase: the wait for a pooled
+ * connection, the statement preparation, its execution and the fetch of the results.
+ */
+public interface ExecuteSqlMetricsMBean {
+
+    String getDataSourceName();
+
+    long getExecutionCount();
+
+    long getErrorCount();
+
+    double getAverageConnectionWaitMs();
+
+    double getMaxConnectionWaitMs();
+
+    double getAveragePrepareMs();
+
+    double getMaxPrepareMs();
+
+    double getAverageExecuteMs();
+
+    double getMaxExecuteMs();
+
+    double getAverageFetchMs();
+
+    double getMaxFetchMs();
+
+    void reset();
+}
@@ -15,11 +15,22 @@
  */
 package org.jbpm.process.workitem.executesql;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -52,10 +63,19 @@ import org.slf4j.LoggerFactory;
         parameters = {
                 @WidParameter(name = "SQLStatement", required = true),
                 @WidParameter(name = "MaxResults"),
-                @WidParameter(name = "ColumnSeparator")
+                @WidParameter(name = "ColumnSeparator"),
+                @WidParameter(name = "ResultMode"),
+                @WidParameter(name = "FetchSize"),
+                @WidParameter(name = "OutputFormat"),
+                @WidParameter(name = "OutputFile"),
+                @WidParameter(name = "Columns"),
+                @WidParameter(name = "Parameters", runtimeType = "java.util.List"),
+                @WidParameter(name = "BatchParameters", runtimeType = "java.util.List"),
+                @WidParameter(name = "BatchSize")
         },
         results = {
-                @WidResult(name = "Result", runtimeType = "java.lang.Object")
+                @WidResult(name = "Result", runtimeType = "java.lang.Object"),
+                @WidResult(name = "RowCount", runtimeType = "java.lang.Long")
         },
         mavenDepends = {
                 @WidMavenDepends(group = "${groupId}", artifact = "${artifactId}", version = "${version}")
@@ -70,11 +90,22 @@ public class ExecuteSqlWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
 
     private static final Logger logger = LoggerFactory.getLogger(ExecuteSqlWorkItemHandler.class);
     private static final String RESULT = "Result";
+    private static final String ROW_COUNT = "RowCount";
     private static final int DEFAULT_MAX_RESULTS = 10;
     private static final String DEFAULT_COLUMN_SEPARATOR = ",";
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    // rows are joined into a list of strings
+    private static final String RESULT_MODE_LINES = "LINES";
+    // rows are written incrementally to the output file, Result is the path of the file
+    private static final String RESULT_MODE_STREAM = "STREAM";
+    // rows are returned as a list of typed column label to value maps
+    private static final String RESULT_MODE_ROWS = "ROWS";
+    // rows are returned as a map of column label to the list of its typed values
+    private static final String RESULT_MODE_COLUMNS = "COLUMNS";
     private DataSource ds;
     private int maxResults;
     private String columnSeparator;
+    private final ExecuteSqlMetrics metrics;
 
     public ExecuteSqlWorkItemHandler(String dataSourceName) {
         try {
@@ -82,10 +113,18 @@ public class ExecuteSqlWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
         } catch (NamingException e) {
             throw new RuntimeException("Unable to look up data source: " + dataSourceName + " - " + e.getMessage());
         }
+        this.metrics = new ExecuteSqlMetrics(dataSourceName);
+        this.metrics.register();
     }
     
     public ExecuteSqlWorkItemHandler(DataSource ds) {
         this.ds = ds;       
+        this.metrics = new ExecuteSqlMetrics(ds.getClass().getName());
+        this.metrics.register();
+    }
+
+    public ExecuteSqlMetrics getMetrics() {
+        return metrics;
     }
 
     public void executeWorkItem(WorkItem workItem,
@@ -102,52 +141,193 @@ public class ExecuteSqlWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
             String sqlStatement = (String) workItem.getParameter("SQLStatement");
             String maxResultsInput = (String) workItem.getParameter("MaxResults");
             String columnSeparatorInput = (String) workItem.getParameter("ColumnSeparator");
+            String resultModeInput = (String) workItem.getParameter("ResultMode");
+            String fetchSizeInput = (String) workItem.getParameter("FetchSize");
 
-            maxResults = maxResultsInput != null && !maxResultsInput.trim().isEmpty() ? Integer.parseInt(maxResultsInput) : DEFAULT_MAX_RESULTS;
+            String resultMode = resultModeInput != null && !resultModeInput.trim().isEmpty() ? resultModeInput.trim().toUpperCase() : RESULT_MODE_LINES;
+            boolean stream = RESULT_MODE_STREAM.equals(resultMode);
+            // streamed results are not held in memory, so they are not limited unless explicitly requested
+            maxResults = maxResultsInput != null && !maxResultsInput.trim().isEmpty() ? Integer.parseInt(maxResultsInput) : (stream ? 0 : DEFAULT_MAX_RESULTS);
             columnSeparator = columnSeparatorInput != null && !columnSeparatorInput.isEmpty() ? columnSeparatorInput : DEFAULT_COLUMN_SEPARATOR;
+            int fetchSize = fetchSizeInput != null && !fetchSizeInput.trim().isEmpty() ? Integer.parseInt(fetchSizeInput.trim()) : 0;
+
+            Object batchParameters = workItem.getParameter("BatchParameters");
+            int batchSize = 0;
+            if (batchParameters != null) {
+                String batchSizeInput = (String) workItem.getParameter("BatchSize");
+                batchSize = batchSizeInput != null && !batchSizeInput.trim().isEmpty() ? Integer.parseInt(batchSizeInput.trim()) : DEFAULT_BATCH_SIZE;
+                if (batchSize <= 0) {
+                    throw new IllegalArgumentException("BatchSize must be greater than 0, was " + batchSize);
+                }
+            }
 
-            List<String> lines = new ArrayList<>();
             try {
+                long start = System.nanoTime();
                 connection = ds.getConnection();
+                start = metrics.record(ExecuteSqlMetrics.Phase.CONNECTION_WAIT, start);
+                // statements are not cached by the handler: a statement belongs to its connection, which goes back to the pool
+                // once the work item completes, so reuse across executions is left to the prepared statement cache of the
+                // data source (e.g. prepared-statement-cache-size of an application server data source)
                 statement = connection.prepareStatement(sqlStatement);
-                statement.setMaxRows(maxResults);
-
-		boolean containsResultSet = statement.execute();
-		if(containsResultSet){
-                	resultSet = statement.getResultSet();
-                	results.put(RESULT,processResults(resultSet));
-		}else{
-			results.put(RESULT,statement.getUpdateCount());
-		}
-                workItemManager.completeWorkItem(workItem.getId(),results);
-            } finally {
-                try {
-                    if (resultSet != null) {
-                        resultSet.close();
+                if (batchParameters != null) {
+                    start = metrics.record(ExecuteSqlMetrics.Phase.PREPARE, start);
+                    executeBatchesInTransaction(connection, statement, toList(batchParameters), batchSize, results);
+                    metrics.record(ExecuteSqlMetrics.Phase.EXECUTE, start);
+                } else {
+                    bindParameters(statement, toList(workItem.getParameter("Parameters")));
+                    statement.setMaxRows(maxResults);
+                    if (fetchSize > 0) {
+                        statement.setFetchSize(fetchSize);
                     }
-                    if (statement != null) {
-                        statement.close();
-                    }
-                    if (connection != null) {
-                        connection.close();
+                    start = metrics.record(ExecuteSqlMetrics.Phase.PREPARE, start);
+
+                    boolean containsResultSet = statement.execute();
+                    start = metrics.record(ExecuteSqlMetrics.Phase.EXECUTE, start);
+                    if (containsResultSet) {
+                        resultSet = statement.getResultSet();
+                        if (stream) {
+                            streamResults(resultSet, workItem, results);
+                        } else if (RESULT_MODE_ROWS.equals(resultMode)) {
+                            results.put(RESULT, new TypedResultReader(resultSet, getColumns(workItem)).readRows());
+                        } else if (RESULT_MODE_COLUMNS.equals(resultMode)) {
+                            results.put(RESULT, new TypedResultReader(resultSet, getColumns(workItem)).readColumns());
+                        } else {
+                            results.put(RESULT, processResults(resultSet));
+                        }
+                        metrics.record(ExecuteSqlMetrics.Phase.FETCH, start);
+                    } else {
+                        results.put(RESULT, statement.getUpdateCount());
                     }
-                } catch (SQLException e) {
-                    throw new RuntimeException(e);
                 }
+                metrics.recordExecution(false);
+                workItemManager.completeWorkItem(workItem.getId(), results);
+            } finally {
+                close(resultSet, statement, connection);
             }
         } catch (Exception e) {
             logger.error(e.getMessage());
+            metrics.recordExecution(true);
             handleException(e);
         }
     }
 
+    private void close(ResultSet resultSet, Statement statement, Connection connection) {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            if (statement != null) {
+                statement.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Executes the batches in a local transaction, so a failing batch does not leave the previous ones committed.
+     * A connection that is not in auto-commit mode already takes part in a transaction, e.g. a JTA one, which then
+     * decides the outcome of all the batches.
+     */
+    private void executeBatchesInTransaction(Connection connection, PreparedStatement statement, List<Object> parameterRows, int batchSize,
+                                             Map<String, Object> results) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            executeBatches(statement, parameterRows, batchSize, results);
+            return;
+        }
+        connection.setAutoCommit(false);
+        try {
+            executeBatches(statement, parameterRows, batchSize, results);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackFailure) {
+                e.addSuppressed(rollbackFailure);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Executes the statement once per parameter row, sending the rows to the database <code>batchSize</code> at a time.
+     * The result is the list of the update counts of each batch, {@link Statement#SUCCESS_NO_INFO} when the driver does not report
+     * any of them. Statements reported as {@link Statement#SUCCESS_NO_INFO} are left out of the counts, so with such drivers the
+     * row count is the number of rows known to be updated. A statement reported as {@link Statement#EXECUTE_FAILED} fails the
+     * work item with a {@link BatchUpdateException}.
+     */
+    protected void executeBatches(PreparedStatement statement, List<Object> parameterRows, int batchSize, Map<String, Object> results) throws SQLException {
+        List<Integer> batchUpdateCounts = new ArrayList<>();
+        long total = 0;
+        int pending = 0;
+        for (Object parameterRow : parameterRows) {
+            bindParameters(statement, toList(parameterRow));
+            statement.addBatch();
+            if (++pending == batchSize) {
+                total += addUpdateCount(statement.executeBatch(), batchUpdateCounts);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            total += addUpdateCount(statement.executeBatch(), batchUpdateCounts);
+        }
+        logger.debug("Executed {} batches updating {} rows", batchUpdateCounts.size(), total);
+        results.put(RESULT, batchUpdateCounts);
+        results.put(ROW_COUNT, total);
+    }
+
+    private long addUpdateCount(int[] updateCounts, List<Integer> batchUpdateCounts) throws BatchUpdateException {
+        int batchCount = 0;
+        boolean known = false;
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                throw new BatchUpdateException("Statement " + i + " of batch " + batchUpdateCounts.size() + " failed", updateCounts);
+            }
+            if (updateCounts[i] >= 0) {
+                batchCount += updateCounts[i];
+                known = true;
+            }
+        }
+        batchUpdateCounts.add(known || updateCounts.length == 0 ? batchCount : Statement.SUCCESS_NO_INFO);
+        return batchCount;
+    }
+
+    private void bindParameters(PreparedStatement statement, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            if (value == null) {
+                statement.setNull(i + 1, Types.NULL);
+            } else {
+                statement.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private List<Object> toList(Object parameters) {
+        if (parameters == null) {
+            return Collections.emptyList();
+        } else if (parameters instanceof List) {
+            return (List<Object>) parameters;
+        } else if (parameters instanceof Collection) {
+            return new ArrayList<>((Collection<Object>) parameters);
+        } else if (parameters instanceof Object[]) {
+            return Arrays.asList((Object[]) parameters);
+        }
+        return Collections.singletonList(parameters);
+    }
+
     // overwrite to implement custom resultset processing
     protected Object processResults(ResultSet resultSet) throws Exception {
         List<String> lines = new ArrayList<>();
+        int columnCount = resultSet.getMetaData().getColumnCount();
 
         while (resultSet.next()) {
-            int columnCount = resultSet.getMetaData().getColumnCount();
-            List<String> values = new ArrayList<>();
+            List<String> values = new ArrayList<>(columnCount);
             for (int i = 0; i < columnCount; i++) {
                 values.add(resultSet.getString(i + 1));
             }
@@ -157,10 +337,43 @@ public class ExecuteSqlWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
         return lines;
     }
 
+    private List<String> getColumns(WorkItem workItem) {
+        String columnsInput = (String) workItem.getParameter("Columns");
+        if (columnsInput == null || columnsInput.trim().isEmpty()) {
+            return null;
+        }
+        return Arrays.asList(columnsInput.trim().split("\\s*,\\s*"));
+    }
+
+    /**
+     * Writes the rows to the <code>OutputFile</code> (a temporary file when not given) as they are fetched,
+     * in the <code>OutputFormat</code> (CSV or JSON lines). The path of the file is returned as the result.
+     */
+    protected void streamResults(ResultSet resultSet, WorkItem workItem, Map<String, Object> results) throws SQLException, IOException {
+        String outputFormatInput = (String) workItem.getParameter("OutputFormat");
+        String outputFileInput = (String) workItem.getParameter("OutputFile");
+
+        ResultSetWriter.Format format = outputFormatInput != null && !outputFormatInput.trim().isEmpty()
+                ? ResultSetWriter.Format.valueOf(outputFormatInput.trim().toUpperCase())
+                : ResultSetWriter.Format.CSV;
+        File outputFile = outputFileInput != null && !outputFileInput.trim().isEmpty()
+                ? new File(outputFileInput.trim())
+                : File.createTempFile("executesql-", format == ResultSetWriter.Format.CSV ? ".csv" : ".jsonl");
+
+        ResultSetWriter resultSetWriter = new ResultSetWriter(resultSet, format, columnSeparator);
+        try (Writer writer = Files.newBufferedWriter(outputFile.toPath(), StandardCharsets.UTF_8)) {
+            long rows = resultSetWriter.writeAll(writer);
+            logger.debug("Streamed {} rows to {}", rows, outputFile);
+            results.put(RESULT, outputFile.getAbsolutePath());
+            results.put(ROW_COUNT, rows);
+        }
+    }
+
     public void abortWorkItem(WorkItem workItem,
                               WorkItemManager manager) {
     }
 
     public void close() {
+        metrics.unregister();
     }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.executesql;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Writes the rows of a result set one by one to a writer, as CSV or as JSON lines,
+ * so the memory used does not depend on the size of the result.
+ * The column metadata is read once, when the writer is created.
+ */
+public class ResultSetWriter {
+
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    private final ResultSet resultSet;
+    private final Format format;
+    private final String columnSeparator;
+    private final String[] columnLabels;
+    // whether the column is written as a json number or boolean, otherwise it is read as a string
+    private final boolean[] jsonLiterals;
+
+    public ResultSetWriter(ResultSet resultSet, Format format, String columnSeparator) throws SQLException {
+        this.resultSet = resultSet;
+        this.format = format;
+        this.columnSeparator = columnSeparator;
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        this.columnLabels = new String[metaData.getColumnCount()];
+        this.jsonLiterals = new boolean[columnLabels.length];
+        for (int i = 0; i < columnLabels.length; i++) {
+            columnLabels[i] = metaData.getColumnLabel(i + 1);
+            jsonLiterals[i] = isJsonLiteral(metaData.getColumnType(i + 1));
+        }
+    }
+
+    private static boolean isJsonLiteral(int columnType) {
+        switch (columnType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes all the remaining rows of the result set.
+     * @return number of rows written
+     */
+    public long writeAll(Writer writer) throws SQLException, IOException {
+        if (format == Format.CSV) {
+            writeCsvRow(writer, columnLabels);
+        }
+        long rows = 0;
+        String[] values = new String[columnLabels.length];
+        while (resultSet.next()) {
+            if (format == Format.CSV) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = resultSet.getString(i + 1);
+                }
+                writeCsvRow(writer, values);
+            } else {
+                writeJsonRow(writer);
+            }
+            rows++;
+        }
+        writer.flush();
+        return rows;
+    }
+
+    private void writeCsvRow(Writer writer, String[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(columnSeparator);
+            }
+            writeCsvValue(writer, values[i]);
+        }
+        writer.write('\n');
+    }
+
+    private void writeCsvValue(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.contains(columnSeparator) || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        } else {
+            writer.write(value);
+        }
+    }
+
+    private void writeJsonRow(Writer writer) throws SQLException, IOException {
+        writer.write('{');
+        for (int i = 0; i < columnLabels.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeJsonString(writer, columnLabels[i]);
+            writer.write(':');
+            // each column is read once, as an object only when it can be written as a json literal
+            Object value = jsonLiterals[i] ? resultSet.getObject(i + 1) : resultSet.getString(i + 1);
+            if (value == null || isNonFinite(value)) {
+                // json has no literal for NaN and the infinities
+                writer.write("null");
+            } else if (value instanceof Number || value instanceof Boolean) {
+                writer.write(value.toString());
+            } else {
+                writeJsonString(writer, value.toString());
+            }
+        }
+        writer.write("}\n");
+    }
+
+    private static boolean isNonFinite(Object value) {
+        if (value instanceof Double) {
+            return ((Double) value).isNaN() || ((Double) value).isInfinite();
+        }
+        if (value instanceof Float) {
+            return ((Float) value).isNaN() || ((Float) value).isInfinite();
+        }
+        return false;
+    }
+
+    private void writeJsonString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+            }
+        }
+        writer.write('"');
+    }
+}
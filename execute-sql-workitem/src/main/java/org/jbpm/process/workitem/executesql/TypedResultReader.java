@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.executesql;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the rows of a result set as typed values, the getter of each column is chosen once
+ * from its {@link ResultSetMetaData} type. An optional projection restricts the columns read.
+ */
+public class TypedResultReader {
+
+    @FunctionalInterface
+    private interface ColumnGetter {
+
+        Object get(ResultSet resultSet, int index) throws SQLException;
+    }
+
+    private final ResultSet resultSet;
+    private final int[] columnIndexes;
+    private final String[] columnLabels;
+    private final ColumnGetter[] getters;
+
+    /**
+     * @param projection labels of the columns to read (case insensitive), null or empty to read all the columns
+     */
+    public TypedResultReader(ResultSet resultSet, Collection<String> projection) throws SQLException {
+        this.resultSet = resultSet;
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        List<Integer> indexes = new ArrayList<>();
+        if (projection == null || projection.isEmpty()) {
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                indexes.add(i);
+            }
+        } else {
+            for (String column : projection) {
+                indexes.add(findColumn(metaData, column));
+            }
+        }
+        this.columnIndexes = new int[indexes.size()];
+        this.columnLabels = new String[indexes.size()];
+        this.getters = new ColumnGetter[indexes.size()];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnIndexes[i] = indexes.get(i);
+            columnLabels[i] = metaData.getColumnLabel(columnIndexes[i]);
+            getters[i] = getter(metaData.getColumnType(columnIndexes[i]));
+        }
+    }
+
+    /**
+     * @return one map per row, keyed by the column label in the column order
+     */
+    public List<Map<String, Object>> readRows() throws SQLException {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            Map<String, Object> row = new LinkedHashMap<>(columnIndexes.length * 4 / 3 + 1);
+            for (int i = 0; i < columnIndexes.length; i++) {
+                row.put(columnLabels[i], getters[i].get(resultSet, columnIndexes[i]));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * @return one list of values per column, keyed by the column label in the column order
+     */
+    public Map<String, List<Object>> readColumns() throws SQLException {
+        Map<String, List<Object>> columns = new LinkedHashMap<>();
+        List<List<Object>> values = new ArrayList<>(columnIndexes.length);
+        for (String label : columnLabels) {
+            List<Object> column = new ArrayList<>();
+            columns.put(label, column);
+            values.add(column);
+        }
+        while (resultSet.next()) {
+            for (int i = 0; i < columnIndexes.length; i++) {
+                values.get(i).add(getters[i].get(resultSet, columnIndexes[i]));
+            }
+        }
+        return columns;
+    }
+
+    private static int findColumn(ResultSetMetaData metaData, String column) throws SQLException {
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (metaData.getColumnLabel(i).equalsIgnoreCase(column.trim())) {
+                return i;
+            }
+        }
+        throw new SQLException("Column " + column + " not found in the result set");
+    }
+
+    private static ColumnGetter getter(int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return (rs, index) -> nullable(rs, rs.getInt(index));
+            case Types.BIGINT:
+                return (rs, index) -> nullable(rs, rs.getLong(index));
+            case Types.REAL:
+                return (rs, index) -> nullable(rs, rs.getFloat(index));
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return (rs, index) -> nullable(rs, rs.getDouble(index));
+            case Types.DECIMAL:
+            case Types.NUMERIC:
+                return ResultSet::getBigDecimal;
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return (rs, index) -> nullable(rs, rs.getBoolean(index));
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+            case Types.CLOB:
+            case Types.NCLOB:
+                return ResultSet::getString;
+            case Types.DATE:
+                return ResultSet::getDate;
+            case Types.TIME:
+                return ResultSet::getTime;
+            case Types.TIMESTAMP:
+                return ResultSet::getTimestamp;
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return ResultSet::getBytes;
+            default:
+                return ResultSet::getObject;
+        }
+    }
+
+    private static Object nullable(ResultSet resultSet, Object value) throws SQLException {
+        return resultSet.wasNull() ? null : value;
+    }
+}
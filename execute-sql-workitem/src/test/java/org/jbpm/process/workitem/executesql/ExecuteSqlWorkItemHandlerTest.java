@@ -15,10 +15,21 @@
  */
 package org.jbpm.process.workitem.executesql;
 
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
@@ -26,6 +37,7 @@ import javax.sql.DataSource;
 import org.drools.core.process.instance.impl.WorkItemImpl;
 import org.h2.tools.DeleteDbFiles;
 import org.h2.tools.Server;
+import org.jbpm.bpmn2.handler.WorkItemHandlerRuntimeException;
 import org.jbpm.process.workitem.core.TestWorkItemManager;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -144,6 +156,288 @@ public class ExecuteSqlWorkItemHandlerTest {
 
     }
 
+    @Test
+    public void testStreamCsv() throws Exception {
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select id, name from Person order by id");
+        workItem.setParameter("ResultMode",
+                              "stream");
+        workItem.setParameter("FetchSize",
+                              "2");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        File output = new File((String) manager.getResults().get(workItem.getId()).get("Result"));
+        try {
+            assertEquals(3L,
+                         manager.getResults().get(workItem.getId()).get("RowCount"));
+            List<String> lines = Files.readAllLines(output.toPath(),
+                                                    StandardCharsets.UTF_8);
+            assertEquals(4,
+                         lines.size());
+            assertEquals("ID,NAME",
+                         lines.get(0));
+            assertEquals("1,Anthony",
+                         lines.get(1));
+        } finally {
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testStreamJsonLines() throws Exception {
+        File output = File.createTempFile("executesql-test",
+                                          ".jsonl");
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select id, name from Person where id = 2");
+        workItem.setParameter("ResultMode",
+                              "STREAM");
+        workItem.setParameter("OutputFormat",
+                              "json");
+        workItem.setParameter("OutputFile",
+                              output.getAbsolutePath());
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        try {
+            assertEquals(output.getAbsolutePath(),
+                         manager.getResults().get(workItem.getId()).get("Result"));
+            List<String> lines = Files.readAllLines(output.toPath(),
+                                                    StandardCharsets.UTF_8);
+            assertEquals(1,
+                         lines.size());
+            assertEquals("{\"ID\":2,\"NAME\":\"Will\"}",
+                         lines.get(0));
+        } finally {
+            output.delete();
+        }
+    }
+
+    @Test
+    public void testTypedRows() throws Exception {
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select * from Person where id = 1");
+        workItem.setParameter("ResultMode",
+                              "ROWS");
+        workItem.setParameter("Columns",
+                              "name, id");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        List<Map<String, Object>> rows = (List<Map<String, Object>>) manager.getResults().get(workItem.getId()).get("Result");
+        assertEquals(1,
+                     rows.size());
+        assertEquals(Arrays.asList("NAME", "ID"),
+                     Arrays.asList(rows.get(0).keySet().toArray()));
+        assertEquals("Anthony",
+                     rows.get(0).get("NAME"));
+        assertEquals(1,
+                     rows.get(0).get("ID"));
+    }
+
+    @Test
+    public void testTypedColumns() throws Exception {
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select id, age from Person order by id");
+        workItem.setParameter("ResultMode",
+                              "COLUMNS");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        Map<String, List<Object>> columns = (Map<String, List<Object>>) manager.getResults().get(workItem.getId()).get("Result");
+        assertEquals(Arrays.asList(1, 2, 3),
+                     columns.get("ID"));
+        assertEquals(3,
+                     columns.get("AGE").size());
+    }
+
+    @Test
+    public void testBoundParameters() throws Exception {
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select * from Person where id = ? and name = ?");
+        workItem.setParameter("Parameters",
+                              Arrays.asList(2, "Will"));
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        List<String> resultLines = (List<String>) manager.getResults().get(workItem.getId()).get("Result");
+        assertEquals(1,
+                     resultLines.size());
+        assertTrue(resultLines.get(0).startsWith("2,Will,"));
+    }
+
+    @Test
+    public void testBatchInsert() throws Exception {
+        DataSource ds = InitialContext.doLookup(DS_NAME);
+        try (Connection connection = ds.getConnection();
+             PreparedStatement createTableStatement = connection.prepareStatement("create table Item(id int, name varchar2(255));")) {
+            createTableStatement.executeUpdate();
+        }
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "insert into Item (id, name) values (?, ?)");
+        workItem.setParameter("BatchParameters",
+                              Arrays.asList(Arrays.asList(1, "first"),
+                                            Arrays.asList(2, "second"),
+                                            Arrays.asList(3, null)));
+        workItem.setParameter("BatchSize",
+                              "2");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        assertEquals(Arrays.asList(2, 1),
+                     manager.getResults().get(workItem.getId()).get("Result"));
+        assertEquals(3L,
+                     manager.getResults().get(workItem.getId()).get("RowCount"));
+    }
+
+    @Test
+    public void testFailedBatchRollsBackThePreviousBatches() throws Exception {
+        DataSource ds = InitialContext.doLookup(DS_NAME);
+        try (Connection connection = ds.getConnection();
+             PreparedStatement createTableStatement = connection.prepareStatement("create table Tag(id int primary key);")) {
+            createTableStatement.executeUpdate();
+        }
+
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "insert into Tag (id) values (?)");
+        workItem.setParameter("BatchParameters",
+                              Arrays.asList(Arrays.asList(1),
+                                            Arrays.asList(2),
+                                            Arrays.asList(1)));
+        workItem.setParameter("BatchSize",
+                              "1");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        try {
+            handler.executeWorkItem(workItem,
+                                    new TestWorkItemManager());
+            fail("The duplicated id fails the last batch");
+        } catch (WorkItemHandlerRuntimeException e) {
+            // expected
+        } finally {
+            handler.close();
+        }
+
+        try (Connection connection = ds.getConnection();
+             PreparedStatement countStatement = connection.prepareStatement("select count(*) from Tag");
+             ResultSet resultSet = countStatement.executeQuery()) {
+            resultSet.next();
+            assertEquals(0,
+                         resultSet.getInt(1));
+            assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    @Test(expected = WorkItemHandlerRuntimeException.class)
+    public void testNonPositiveBatchSizeIsRejected() throws Exception {
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "insert into Item (id, name) values (?, ?)");
+        workItem.setParameter("BatchParameters",
+                              Arrays.asList(Arrays.asList(1, "first")));
+        workItem.setParameter("BatchSize",
+                              "0");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        try {
+            handler.executeWorkItem(workItem,
+                                    new TestWorkItemManager());
+        } finally {
+            handler.close();
+        }
+    }
+
+    @Test
+    public void testBatchUpdateCountsWithoutInfo() throws Exception {
+        PreparedStatement statement = batchStatement(new int[]{1, Statement.SUCCESS_NO_INFO, 2},
+                                                     new int[]{Statement.SUCCESS_NO_INFO});
+        Map<String, Object> results = new HashMap<>();
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        try {
+            handler.executeBatches(statement,
+                                   Arrays.asList(Arrays.asList(1), Arrays.asList(2), Arrays.asList(3), Arrays.asList(4)),
+                                   3,
+                                   results);
+        } finally {
+            handler.close();
+        }
+
+        assertEquals(Arrays.asList(3, Statement.SUCCESS_NO_INFO),
+                     results.get("Result"));
+        assertEquals(3L,
+                     results.get("RowCount"));
+    }
+
+    @Test(expected = BatchUpdateException.class)
+    public void testBatchWithFailedStatement() throws Exception {
+        PreparedStatement statement = batchStatement(new int[]{1, Statement.EXECUTE_FAILED});
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        try {
+            handler.executeBatches(statement,
+                                   Arrays.asList(Arrays.asList(1), Arrays.asList(2)),
+                                   2,
+                                   new HashMap<>());
+        } finally {
+            handler.close();
+        }
+    }
+
+    private PreparedStatement batchStatement(int[]... batches) {
+        Iterator<int[]> updateCounts = Arrays.asList(batches).iterator();
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                          new Class[]{PreparedStatement.class},
+                                                          (proxy, method, args) -> "executeBatch".equals(method.getName()) ? updateCounts.next() : null);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("SQLStatement",
+                              "select * from Person");
+        ExecuteSqlWorkItemHandler handler = new ExecuteSqlWorkItemHandler(DS_NAME);
+        try {
+            handler.executeWorkItem(workItem,
+                                    manager);
+            handler.executeWorkItem(workItem,
+                                    manager);
+
+            ExecuteSqlMetrics metrics = handler.getMetrics();
+            assertEquals(DS_NAME,
+                         metrics.getDataSourceName());
+            assertEquals(2,
+                         metrics.getExecutionCount());
+            assertEquals(0,
+                         metrics.getErrorCount());
+            assertTrue(metrics.getMaxExecuteMs() > 0);
+            assertTrue(metrics.getMaxExecuteMs() >= metrics.getAverageExecuteMs());
+
+            metrics.reset();
+            assertEquals(0,
+                         metrics.getExecutionCount());
+        } finally {
+            handler.close();
+        }
+    }
+
 
     private static void insertData() throws Exception {
         DataSource ds = InitialContext.doLookup(DS_NAME);
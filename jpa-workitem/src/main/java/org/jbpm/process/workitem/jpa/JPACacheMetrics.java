@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.jpa;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache hit ratios of the persistence unit of a {@link JPAWorkItemHandler}, read from the Hibernate {@link Statistics}
+ * (the handlers sharing a persistence unit therefore report the same counts), and the evictions of the handler itself.
+ * Published as <code>org.jbpm.process.workitem.jpa:type=JPAWorkItemHandler,persistenceUnit=...,id=...</code>
+ * unless <code>org.jbpm.process.workitem.jpa.jmx.enabled</code> is false.
+ */
+public class JPACacheMetrics implements JPACacheMetricsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(JPACacheMetrics.class);
+
+    private static final String JMX_DOMAIN = "org.jbpm.process.workitem.jpa";
+    private static final String JMX_ENABLED = "org.jbpm.process.workitem.jpa.jmx.enabled";
+
+    // unique per instance, identity hash codes may collide and hide a handler from JMX
+    private static final AtomicLong ids = new AtomicLong();
+
+    private final String persistenceUnit;
+    private final Statistics statistics;
+    private final LongAdder evictions = new LongAdder();
+
+    private ObjectName objectName;
+
+    JPACacheMetrics(String persistenceUnit, EntityManagerFactory emf) {
+        this.persistenceUnit = persistenceUnit;
+        this.statistics = getStatistics(emf);
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    @Override
+    public String getPersistenceUnit() {
+        return persistenceUnit;
+    }
+
+    @Override
+    public boolean isStatisticsEnabled() {
+        return statistics != null && statistics.isStatisticsEnabled();
+    }
+
+    @Override
+    public long getSecondLevelCacheHitCount() {
+        return isStatisticsEnabled() ? statistics.getSecondLevelCacheHitCount() : 0;
+    }
+
+    @Override
+    public long getSecondLevelCacheMissCount() {
+        return isStatisticsEnabled() ? statistics.getSecondLevelCacheMissCount() : 0;
+    }
+
+    @Override
+    public double getSecondLevelCacheHitRatio() {
+        return ratio(getSecondLevelCacheHitCount(), getSecondLevelCacheMissCount());
+    }
+
+    @Override
+    public long getQueryCacheHitCount() {
+        return isStatisticsEnabled() ? statistics.getQueryCacheHitCount() : 0;
+    }
+
+    @Override
+    public long getQueryCacheMissCount() {
+        return isStatisticsEnabled() ? statistics.getQueryCacheMissCount() : 0;
+    }
+
+    @Override
+    public double getQueryCacheHitRatio() {
+        return ratio(getQueryCacheHitCount(), getQueryCacheMissCount());
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Resets the handler counters and the statistics of the whole persistence unit.
+     */
+    @Override
+    public void reset() {
+        evictions.reset();
+        if (statistics != null) {
+            statistics.clear();
+        }
+    }
+
+    void register() {
+        if (!Boolean.parseBoolean(System.getProperty(JMX_ENABLED, "true"))) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=JPAWorkItemHandler,persistenceUnit=" + ObjectName.quote(String.valueOf(persistenceUnit))
+                                                     + ",id=" + ids.incrementAndGet());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                objectName = name;
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to register JPA cache metrics for {} in JMX", persistenceUnit, e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to unregister JPA cache metrics for {} from JMX", persistenceUnit, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    private static Statistics getStatistics(EntityManagerFactory emf) {
+        try {
+            return emf.unwrap(SessionFactory.class).getStatistics();
+        } catch (PersistenceException | LinkageError e) {
+            // not a Hibernate provider
+            logger.debug("Cache statistics not available for the persistence provider", e);
+            return null;
+        }
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.jpa;
+
+/**
+ * JMX view of the caching of a JPA work item handler: the second level and query cache statistics of its
+ * persistence unit, plus the evictions done by the handler on updates and deletes.
+ */
+public interface JPACacheMetricsMBean {
+
+    String getPersistenceUnit();
+
+    /**
+     * @return whether the persistence provider collects statistics (<code>hibernate.generate_statistics</code>),
+     * the cache hit and miss counts are 0 otherwise
+     */
+    boolean isStatisticsEnabled();
+
+    long getSecondLevelCacheHitCount();
+
+    long getSecondLevelCacheMissCount();
+
+    double getSecondLevelCacheHitRatio();
+
+    long getQueryCacheHitCount();
+
+    long getQueryCacheMissCount();
+
+    double getQueryCacheHitRatio();
+
+    long getEvictionCount();
+
+    void reset();
+}
@@ -16,15 +16,28 @@
 
 package org.jbpm.process.workitem.jpa;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.CacheStoreMode;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
+import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 
+import org.hibernate.Session;
+import org.hibernate.event.spi.EventSource;
+
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
 import org.jbpm.process.workitem.core.util.Wid;
@@ -58,8 +71,30 @@ import org.slf4j.LoggerFactory;
  * The query must be provided using the <b>Query</b> input parameter and you may
  * provide query parameters in the form of a Map with key String and value
  * Object using the <b>QueryParameters</b> WIH input parameter. The result of
- * the query is put on the output parameter <b>QueryResults</b>.</li>
+ * the query is put on the output parameter <b>QueryResults</b>. A query defined
+ * in the persistence unit (e.g. with <code>@NamedQuery</code>) can be run using the
+ * <b>NamedQuery</b> parameter instead; JPQL queries are registered as named queries
+ * the first time they run, so they are parsed only once. The results can be paginated
+ * with the <b>FirstResult</b> and <b>MaxResults</b> parameters, and the <b>ReadOnly</b>
+ * parameter loads them without dirty checking. When <b>ChunkSize</b> and a
+ * <b>ResultHandler</b> are given, the results are streamed and handed to the result handler
+ * in chunks instead of being returned, the number of results is then put on the <b>Result</b>
+ * output parameter. <b>ResultHandler</b> is the name of a handler registered with
+ * {@link #registerResultHandler(String, Consumer)}, or else the name of a class implementing
+ * <code>java.util.function.Consumer</code> of lists, loaded from the classloader of the WIH,
+ * so the work item parameters stay persistable.</li>
+ * <li>Create_All / Update_All: Persist or merge a collection of entities provided
+ * using the <b>Entities</b> WIH parameter. The persistence context is flushed and
+ * cleared every <b>BatchSize</b> entities (50 by default) so memory stays bounded,
+ * and Hibernate JDBC batching is enabled with the same size. The number of
+ * processed entities is returned in the <b>Result</b> output parameter.</li>
  * </ul>
+ * The <b>Cacheable</b> parameter controls the use of the second level cache by Get
+ * (false bypasses it) and marks Query results as cacheable in the query cache, in the
+ * optional <b>CacheRegion</b>. Which entity types are cached is configured in the
+ * persistence unit (<code>shared-cache-mode</code> and <code>@Cacheable</code>).
+ * Update and Delete evict the entity from the second level cache once the transaction commits. The cache hit
+ * ratios are exposed through {@link JPACacheMetrics}.
  * When registering the WIH in the deployment descriptor, you must provide the
  * classloader where your mapped entities are and the name of the persistence
  * unit you configured in <em>persistence.xml</em>.
@@ -78,7 +113,17 @@ import org.slf4j.LoggerFactory;
                 @WidParameter(name = "Action", required = true, runtimeType = "java.lang.Object"),
                 @WidParameter(name = "Query", runtimeType = "java.lang.Object"),
                 @WidParameter(name = "QueryParameters", runtimeType = "java.lang.Object"),
-                @WidParameter(name = "QueryResults", runtimeType = "java.lang.Object")
+                @WidParameter(name = "QueryResults", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "Entities", runtimeType = "java.util.Collection"),
+                @WidParameter(name = "BatchSize", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "NamedQuery", runtimeType = "java.lang.String"),
+                @WidParameter(name = "FirstResult", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "MaxResults", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "ReadOnly", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "ChunkSize", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "ResultHandler", runtimeType = "java.lang.String"),
+                @WidParameter(name = "Cacheable", runtimeType = "java.lang.Object"),
+                @WidParameter(name = "CacheRegion", runtimeType = "java.lang.String")
         },
         results = {
                 @WidResult(name = "Result", runtimeType = "java.util.Map")
@@ -107,16 +152,47 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
     public static final String P_QUERY = "Query";
     public static final String P_QUERY_PARAMS = "QueryParameters";
     public static final String P_QUERY_RESULTS = "QueryResults";
+    public static final String P_ENTITIES = "Entities";
+    public static final String P_BATCH_SIZE = "BatchSize";
+    public static final String P_NAMED_QUERY = "NamedQuery";
+    public static final String P_FIRST_RESULT = "FirstResult";
+    public static final String P_MAX_RESULTS = "MaxResults";
+    public static final String P_READ_ONLY = "ReadOnly";
+    public static final String P_CHUNK_SIZE = "ChunkSize";
+    public static final String P_RESULT_HANDLER = "ResultHandler";
+    public static final String P_CACHEABLE = "Cacheable";
+    public static final String P_CACHE_REGION = "CacheRegion";
 
     public static final String CREATE_ACTION = "CREATE";
     public static final String UPDATE_ACTION = "UPDATE";
     public static final String GET_ACTION = "GET";
     public static final String DELETE_ACTION = "DELETE";
     public static final String QUERY_ACTION = "QUERY";
+    public static final String CREATE_ALL_ACTION = "CREATE_ALL";
+    public static final String UPDATE_ALL_ACTION = "UPDATE_ALL";
+
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
+    private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+    private static final String HINT_CACHEABLE = "org.hibernate.cacheable";
+    private static final String HINT_CACHE_REGION = "org.hibernate.cacheRegion";
+    private static final String HINT_CACHE_RETRIEVE_MODE = "javax.persistence.cache.retrieveMode";
+    private static final String HINT_CACHE_STORE_MODE = "javax.persistence.cache.storeMode";
+
+    // bounds the named queries added to the entity manager factory by queries built with literals
+    private static final int MAX_REGISTERED_QUERIES = 500;
 
     private EntityManagerFactory emf;
 
     private ClassLoader classloader;
+
+    private JPACacheMetrics cacheMetrics;
+
+    // JPQL queries already registered as named queries in the entity manager factory
+    private final Set<String> registeredQueries = ConcurrentHashMap.newKeySet();
+
+    // result handlers of the streamed queries, by the name given in the ResultHandler parameter
+    private final Map<String, Consumer<List<Object>>> resultHandlers = new ConcurrentHashMap<>();
     
     public JPAWorkItemHandler(String persistenceUnit) {
         this(persistenceUnit, JPAWorkItemHandler.class.getClassLoader());
@@ -132,6 +208,23 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
             Thread.currentThread().setContextClassLoader(tccl);
         }
         this.classloader = classloader;
+        this.cacheMetrics = new JPACacheMetrics(persistenceUnit,
+                                                emf);
+        this.cacheMetrics.register();
+    }
+
+    public JPACacheMetrics getCacheMetrics() {
+        return cacheMetrics;
+    }
+
+    /**
+     * Registers a handler of the streamed query results, used by the work items that give its name in the
+     * <b>ResultHandler</b> parameter.
+     */
+    public void registerResultHandler(String name,
+                                      Consumer<List<Object>> resultHandler) {
+        resultHandlers.put(name,
+                           resultHandler);
     }
 
     public void executeWorkItem(WorkItem wi,
@@ -177,27 +270,63 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
                     // only works with long for now
                     entity = doGet(em,
                                    type.toString(),
-                                   Long.parseLong(id.toString()));
+                                   Long.parseLong(id.toString()),
+                                   wi.getParameter(P_CACHEABLE));
                     break;
                 case UPDATE_ACTION:
                     doUpdate(em,
                              entity);
+                    evictAfterCommit(em,
+                                     entity);
                     break;
                 case CREATE_ACTION:
                     em.persist(entity);
                     break;
+                case CREATE_ALL_ACTION:
+                case UPDATE_ALL_ACTION:
+                    Object entities = wi.getParameter(P_ENTITIES);
+                    if (!(entities instanceof Collection)) {
+                        throw new IllegalArgumentException("You must provide a collection of entities using the '"
+                                                                   + P_ENTITIES + "' parameter.");
+                    }
+                    Object batchSize = wi.getParameter(P_BATCH_SIZE);
+                    entity = doBulk(em,
+                                    (Collection<?>) entities,
+                                    batchSize != null ? Integer.parseInt(batchSize.toString().trim()) : DEFAULT_BATCH_SIZE,
+                                    CREATE_ALL_ACTION.equals(action));
+                    if (UPDATE_ALL_ACTION.equals(action)) {
+                        ((Collection<?>) entities).forEach(e -> evictAfterCommit(em,
+                                                                                 e));
+                    }
+                    break;
                 case QUERY_ACTION:
-                    if (queryName == null) {
+                    Object namedQuery = wi.getParameter(P_NAMED_QUERY);
+                    if (queryName == null && namedQuery == null) {
                         throw new IllegalArgumentException("You must provide a '"
-                                                                   + P_QUERY + "' parameter to run named queries.");
+                                                                   + P_QUERY + "' or '" + P_NAMED_QUERY + "' parameter to run queries.");
+                    }
+                    Query query = namedQuery != null
+                            ? em.createNamedQuery(String.valueOf(namedQuery))
+                            : createQuery(em,
+                                          String.valueOf(queryName));
+                    configureQuery(query,
+                                   wi);
+                    Object chunkSize = wi.getParameter(P_CHUNK_SIZE);
+                    Object resultHandler = wi.getParameter(P_RESULT_HANDLER);
+                    if (chunkSize != null && resultHandler != null) {
+                        entity = doStreamQuery(em,
+                                               query,
+                                               queryParams,
+                                               Integer.parseInt(chunkSize.toString().trim()),
+                                               getResultHandler(resultHandler.toString().trim()));
+                    } else {
+                        queryResults = doQuery(query,
+                                               queryParams);
                     }
-                    queryResults = doQuery(em,
-                                           String.valueOf(queryName),
-                                           queryParams);
                     break;
                 default:
                     throw new IllegalArgumentException(
-                            "Action " + action + " not recognized. Use 'delete', 'create', 'update', query, or 'get'");
+                            "Action " + action + " not recognized. Use 'delete', 'create', 'update', 'create_all', 'update_all', query, or 'get'");
             }
             params.put(P_RESULT,
                        entity);
@@ -214,23 +343,180 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
         }
     }
 
+    /**
+     * Creates the query for the JPQL string through a named query registered the first time it is run,
+     * so the query is parsed once instead of on every call.
+     */
+    private Query createQuery(EntityManager em,
+                              String jpql) {
+        if (registeredQueries.contains(jpql)) {
+            return em.createNamedQuery(jpql);
+        }
+        Query query = em.createQuery(jpql);
+        if (registeredQueries.size() < MAX_REGISTERED_QUERIES) {
+            emf.addNamedQuery(jpql,
+                              query);
+            registeredQueries.add(jpql);
+        }
+        return query;
+    }
+
+    private void configureQuery(Query query,
+                                WorkItem wi) {
+        Object firstResult = wi.getParameter(P_FIRST_RESULT);
+        Object maxResults = wi.getParameter(P_MAX_RESULTS);
+        Object readOnly = wi.getParameter(P_READ_ONLY);
+        if (firstResult != null) {
+            query.setFirstResult(Integer.parseInt(firstResult.toString().trim()));
+        }
+        if (maxResults != null) {
+            query.setMaxResults(Integer.parseInt(maxResults.toString().trim()));
+        }
+        if (readOnly != null && Boolean.parseBoolean(readOnly.toString().trim())) {
+            query.setHint(HINT_READ_ONLY,
+                          true);
+        }
+        Object cacheable = wi.getParameter(P_CACHEABLE);
+        if (cacheable != null && Boolean.parseBoolean(cacheable.toString().trim())) {
+            query.setHint(HINT_CACHEABLE,
+                          true);
+            Object cacheRegion = wi.getParameter(P_CACHE_REGION);
+            if (cacheRegion != null) {
+                query.setHint(HINT_CACHE_REGION,
+                              cacheRegion.toString());
+            }
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private List<Object> doQuery(EntityManager em,
-                                 String queryName,
-                                 Object queryParams) {
-        logger.debug("About to run query {}",
-                     queryName);
-        Map<String, Object> params;
-        Query namedQuery = em.createQuery(queryName);
+    private void setQueryParameters(Query query,
+                                    Object queryParams) {
         if (queryParams == null) {
             logger.debug("No parameters were provided");
         } else {
-            params = ((Map<String, Object>) queryParams);
+            Map<String, Object> params = ((Map<String, Object>) queryParams);
             logger.debug("Parameters {}",
                          params);
-            params.forEach(namedQuery::setParameter);
+            params.forEach(query::setParameter);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> doQuery(Query query,
+                                 Object queryParams) {
+        logger.debug("About to run query {}",
+                     query);
+        setQueryParameters(query,
+                           queryParams);
+        return query.getResultList();
+    }
+
+    /**
+     * Streams the results of the query, handing them to the handler in chunks of <code>chunkSize</code>.
+     * The persistence context is cleared after each chunk, so only a chunk of entities is kept in memory.
+     * @return the number of results
+     */
+    @SuppressWarnings("unchecked")
+    private int doStreamQuery(EntityManager em,
+                              Query query,
+                              Object queryParams,
+                              int chunkSize,
+                              Consumer<List<Object>> resultHandler) {
+        logger.debug("About to stream query {} in chunks of {}",
+                     query,
+                     chunkSize);
+        setQueryParameters(query,
+                           queryParams);
+        int count = 0;
+        try (Stream<Object> results = query.getResultStream()) {
+            List<Object> chunk = new ArrayList<>(chunkSize);
+            Iterator<Object> iterator = results.iterator();
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() == chunkSize) {
+                    count += handleChunk(em,
+                                         chunk,
+                                         resultHandler);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                count += handleChunk(em,
+                                     chunk,
+                                     resultHandler);
+            }
+        }
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<List<Object>> getResultHandler(String name) {
+        Consumer<List<Object>> resultHandler = resultHandlers.get(name);
+        if (resultHandler != null) {
+            return resultHandler;
+        }
+        try {
+            Class<?> type = Class.forName(name,
+                                          true,
+                                          classloader);
+            if (!Consumer.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException("Result handler " + name + " is not a java.util.function.Consumer");
+            }
+            return (Consumer<List<Object>>) type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Result handler " + name + " is neither registered nor a class that can be instantiated",
+                                               e);
+        }
+    }
+
+    private int handleChunk(EntityManager em,
+                            List<Object> chunk,
+                            Consumer<List<Object>> resultHandler) {
+        resultHandler.accept(chunk);
+        em.clear();
+        return chunk.size();
+    }
+
+    /**
+     * Persists or merges the entities, flushing and clearing the persistence context every <code>batchSize</code>
+     * entities so the statements are sent in JDBC batches and the managed entities do not accumulate.
+     * Note that Hibernate cannot batch the inserts of entities with identity generated ids.
+     */
+    private int doBulk(EntityManager em,
+                       Collection<?> entities,
+                       int batchSize,
+                       boolean persist) {
+        enableJdbcBatching(em,
+                           batchSize);
+        int count = 0;
+        for (Object entity : entities) {
+            if (persist) {
+                em.persist(entity);
+            } else {
+                em.merge(entity);
+            }
+            if (++count % batchSize == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.flush();
+        em.clear();
+        logger.debug("{} entities {}",
+                     count,
+                     persist ? "persisted" : "merged");
+        return count;
+    }
+
+    private void enableJdbcBatching(EntityManager em,
+                                    int batchSize) {
+        try {
+            em.unwrap(Session.class).setJdbcBatchSize(batchSize);
+        } catch (PersistenceException | LinkageError e) {
+            // not a Hibernate provider
+            logger.debug("JDBC batching not available for the persistence provider, entities are sent one by one",
+                         e);
         }
-        return namedQuery.getResultList();
     }
 
     private Object doUpdate(EntityManager em,
@@ -241,9 +527,61 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
     private Object doGet(EntityManager em,
                          String clazz,
                          Object id) {
+        return doGet(em,
+                     clazz,
+                     id,
+                     null);
+    }
+
+    private Object doGet(EntityManager em,
+                         String clazz,
+                         Object id,
+                         Object cacheable) {
         Class<?> type = loadClass(clazz);
+        if (cacheable == null) {
+            return em.find(type,
+                           id);
+        }
+        boolean useCache = Boolean.parseBoolean(cacheable.toString().trim());
+        Map<String, Object> hints = new HashMap<>();
+        hints.put(HINT_CACHE_RETRIEVE_MODE,
+                  useCache ? CacheRetrieveMode.USE : CacheRetrieveMode.BYPASS);
+        hints.put(HINT_CACHE_STORE_MODE,
+                  useCache ? CacheStoreMode.USE : CacheStoreMode.BYPASS);
         return em.find(type,
-                       id);
+                       id,
+                       hints);
+    }
+
+    /**
+     * Evicts the entity from the second level cache when the transaction commits, so the following reads do not
+     * return a stale state. Evicting before the commit would let a concurrent read put the old state back in the cache.
+     * With providers other than Hibernate the invalidation is left to the provider.
+     */
+    private void evictAfterCommit(EntityManager em,
+                                  Object entity) {
+        if (entity == null) {
+            return;
+        }
+        Object id = emf.getPersistenceUnitUtil().getIdentifier(entity);
+        if (id == null) {
+            return;
+        }
+        Class<?> type = entity.getClass();
+        try {
+            em.unwrap(EventSource.class).getActionQueue().registerProcess((success, completedSession) -> {
+                if (success) {
+                    emf.getCache().evict(type,
+                                         id);
+                    cacheMetrics.recordEviction();
+                }
+            });
+        } catch (PersistenceException | LinkageError e) {
+            // not a Hibernate provider
+            logger.debug("Not a Hibernate entity manager, eviction of {} is left to the provider",
+                         type.getName(),
+                         e);
+        }
     }
 
     private void doDelete(EntityManager em,
@@ -259,9 +597,12 @@ public class JPAWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
             throw new IllegalArgumentException("Can't load the entity to remove. Provide an attached entity or the id to load it.");
         }
         em.remove(entity);
+        evictAfterCommit(em,
+                         entity);
     }
 
     public void close() {
+        cacheMetrics.unregister();
         emf.close();
     }
 
@@ -17,10 +17,15 @@
 package org.jbpm.process.workitem.jpa;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.persistence.EntityManager;
@@ -211,6 +216,197 @@ public class JPAWorkItemHandlerTest {
                      products.size());
     }
 
+    @Test
+    public void bulkCreateAndUpdateActionTest() throws Exception {
+        List<Product> newProducts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            newProducts.add(new Product("bulk " + i,
+                                        i));
+        }
+        WorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.CREATE_ALL_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_ENTITIES,
+                              newProducts);
+        workItem.setParameter(JPAWorkItemHandler.P_BATCH_SIZE,
+                              "2");
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        assertEquals(5,
+                     ((TestWorkItemManager) manager).getResults(workItem.getId()).get(JPAWorkItemHandler.P_RESULT));
+
+        List<Product> products = getAllProducts();
+        assertEquals(5,
+                     products.size());
+
+        products.forEach(p -> p.setPrice(100f));
+        workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.UPDATE_ALL_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_ENTITIES,
+                              products);
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+
+        for (Product product : getAllProducts()) {
+            assertEquals(100f,
+                         product.getPrice(),
+                         0f);
+            removeProduct(product);
+        }
+    }
+
+    @Test
+    public void namedQueryActionTest() throws Exception {
+        Product p1 = create(new Product("Bread",
+                                        2f));
+        Product p2 = create(new Product("Milk",
+                                        3f));
+
+        WorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.QUERY_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_NAMED_QUERY,
+                              "Product.findByDescription");
+        workItem.setParameter(JPAWorkItemHandler.P_QUERY_PARAMS,
+                              Collections.singletonMap("desc",
+                                                       "Milk"));
+        workItem.setParameter(JPAWorkItemHandler.P_READ_ONLY,
+                              "true");
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        List<Product> products = (List<Product>) ((TestWorkItemManager) manager).getResults(workItem.getId()).get(JPAWorkItemHandler.P_QUERY_RESULTS);
+        assertEquals(1,
+                     products.size());
+        assertEquals("Milk",
+                     products.get(0).getDescription());
+        removeProduct(p1);
+        removeProduct(p2);
+    }
+
+    @Test
+    public void paginatedAndStreamedQueryActionTest() throws Exception {
+        List<Product> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(create(new Product("page " + i,
+                                           i)));
+        }
+
+        WorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.QUERY_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_QUERY,
+                              "SELECT p FROM Product p ORDER BY p.price");
+        workItem.setParameter(JPAWorkItemHandler.P_FIRST_RESULT,
+                              "1");
+        workItem.setParameter(JPAWorkItemHandler.P_MAX_RESULTS,
+                              "2");
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        List<Product> page = (List<Product>) ((TestWorkItemManager) manager).getResults(workItem.getId()).get(JPAWorkItemHandler.P_QUERY_RESULTS);
+        assertEquals(2,
+                     page.size());
+        assertEquals("page 1",
+                     page.get(0).getDescription());
+
+        List<Integer> chunkSizes = new ArrayList<>();
+        workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.QUERY_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_QUERY,
+                              "SELECT p FROM Product p ORDER BY p.price");
+        workItem.setParameter(JPAWorkItemHandler.P_CHUNK_SIZE,
+                              "2");
+        ((JPAWorkItemHandler) handler).registerResultHandler("chunkSizes",
+                                                             chunk -> chunkSizes.add(chunk.size()));
+        workItem.setParameter(JPAWorkItemHandler.P_RESULT_HANDLER,
+                              "chunkSizes");
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        assertEquals(5,
+                     ((TestWorkItemManager) manager).getResults(workItem.getId()).get(JPAWorkItemHandler.P_RESULT));
+        assertEquals(Arrays.asList(2, 2, 1),
+                     chunkSizes);
+
+        CountingResultHandler.count.set(0);
+        workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.QUERY_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_QUERY,
+                              "SELECT p FROM Product p ORDER BY p.price");
+        workItem.setParameter(JPAWorkItemHandler.P_CHUNK_SIZE,
+                              "2");
+        workItem.setParameter(JPAWorkItemHandler.P_RESULT_HANDLER,
+                              CountingResultHandler.class.getName());
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        assertEquals(5,
+                     CountingResultHandler.count.get());
+
+        for (Product product : created) {
+            removeProduct(product);
+        }
+    }
+
+    @Test
+    public void updateEvictsFromCacheTest() throws Exception {
+        Product p = create(new Product("cached",
+                                       1f));
+        JPAWorkItemHandler jpaHandler = (JPAWorkItemHandler) handler;
+        JPACacheMetrics metrics = jpaHandler.getCacheMetrics();
+        long evictions = metrics.getEvictionCount();
+
+        Product product = getCachedProduct(p.getId());
+        assertEquals("cached",
+                     product.getDescription());
+        long hits = metrics.getSecondLevelCacheHitCount();
+        getCachedProduct(p.getId());
+        assertEquals(hits + 1,
+                     metrics.getSecondLevelCacheHitCount());
+
+        product.setPrice(2f);
+        WorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.UPDATE_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_ENTITY,
+                              product);
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        // still cached until the commit
+        assertEquals(evictions,
+                     metrics.getEvictionCount());
+        ut.commit();
+
+        assertEquals(evictions + 1,
+                     metrics.getEvictionCount());
+        long misses = metrics.getSecondLevelCacheMissCount();
+        assertEquals(2f,
+                     getCachedProduct(p.getId()).getPrice(),
+                     0f);
+        assertEquals(misses + 1,
+                     metrics.getSecondLevelCacheMissCount());
+        assertEquals(P_UNIT,
+                     metrics.getPersistenceUnit());
+        removeProduct(product);
+    }
+
     @Test(expected = WorkItemHandlerRuntimeException.class)
     public void queryWithParameterActionTestInvalidParams() throws Exception {
         WorkItemManager manager = new TestWorkItemManager();
@@ -296,6 +492,24 @@ public class JPAWorkItemHandlerTest {
         return product;
     }
 
+    private Product getCachedProduct(long id) throws Exception {
+        WorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter(JPAWorkItemHandler.P_ACTION,
+                              JPAWorkItemHandler.GET_ACTION);
+        workItem.setParameter(JPAWorkItemHandler.P_TYPE,
+                              Product.class.getName());
+        workItem.setParameter(JPAWorkItemHandler.P_ID,
+                              String.valueOf(id));
+        workItem.setParameter(JPAWorkItemHandler.P_CACHEABLE,
+                              "true");
+        ut.begin();
+        handler.executeWorkItem(workItem,
+                                manager);
+        ut.commit();
+        return (Product) ((TestWorkItemManager) manager).getResults(workItem.getId()).get(JPAWorkItemHandler.P_RESULT);
+    }
+
     private void startJPAWIHProcess(String action,
                                     Product prod) throws Exception {
         EntityManagerFactory emf = Persistence.createEntityManagerFactory("org.jbpm.persistence.jpa");
@@ -395,4 +609,14 @@ public class JPAWorkItemHandlerTest {
             super.finalize();
         }
     }
+
+    public static class CountingResultHandler implements Consumer<List<Object>> {
+
+        static final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void accept(List<Object> chunk) {
+            count.addAndGet(chunk.size());
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.jpa;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.boot.spi.SessionFactoryOptions;
+import org.hibernate.cache.cfg.spi.DomainDataRegionBuildingContext;
+import org.hibernate.cache.cfg.spi.DomainDataRegionConfig;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.support.DomainDataStorageAccess;
+import org.hibernate.cache.spi.support.RegionFactoryTemplate;
+import org.hibernate.cache.spi.support.StorageAccess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+
+/**
+ * In memory second level cache of the test persistence unit.
+ */
+public class MapRegionFactory extends RegionFactoryTemplate {
+
+    @Override
+    public AccessType getDefaultAccessType() {
+        return AccessType.READ_WRITE;
+    }
+
+    @Override
+    protected DomainDataStorageAccess createDomainDataStorageAccess(DomainDataRegionConfig regionConfig,
+                                                                    DomainDataRegionBuildingContext buildingContext) {
+        return new MapStorageAccess();
+    }
+
+    @Override
+    protected StorageAccess createQueryResultsRegionStorageAccess(String regionName,
+                                                                  SessionFactoryImplementor sessionFactory) {
+        return new MapStorageAccess();
+    }
+
+    @Override
+    protected StorageAccess createTimestampsRegionStorageAccess(String regionName,
+                                                                SessionFactoryImplementor sessionFactory) {
+        return new MapStorageAccess();
+    }
+
+    @Override
+    protected void prepareForUse(SessionFactoryOptions settings,
+                                 @SuppressWarnings("rawtypes") Map configValues) {
+    }
+
+    @Override
+    protected void releaseFromUse() {
+    }
+
+    private static class MapStorageAccess implements DomainDataStorageAccess {
+
+        private final Map<Object, Object> data = new ConcurrentHashMap<>();
+
+        @Override
+        public Object getFromCache(Object key,
+                                   SharedSessionContractImplementor session) {
+            return data.get(key);
+        }
+
+        @Override
+        public void putIntoCache(Object key,
+                                 Object value,
+                                 SharedSessionContractImplementor session) {
+            data.put(key,
+                     value);
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return data.containsKey(key);
+        }
+
+        @Override
+        public void evictData() {
+            data.clear();
+        }
+
+        @Override
+        public void evictData(Object key) {
+            data.remove(key);
+        }
+
+        @Override
+        public void release() {
+            data.clear();
+        }
+    }
+}
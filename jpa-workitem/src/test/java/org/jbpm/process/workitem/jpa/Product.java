@@ -17,12 +17,16 @@
 package org.jbpm.process.workitem.jpa;
 
 import java.io.Serializable;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.NamedQuery;
 
 @Entity
+@Cacheable
+@NamedQuery(name = "Product.findByDescription", query = "SELECT p FROM Product p WHERE p.description = :desc")
 public class Product implements Serializable {
 
     private static final long serialVersionUID = 1L;
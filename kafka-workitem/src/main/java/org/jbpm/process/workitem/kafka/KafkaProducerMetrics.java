@@ -0,0 +1,176 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Send counts and acknowledgement latencies of a producer shared through the {@link KafkaProducerRegistry},
+ * one instance per registry entry, so the handlers sharing a producer report together. The entry publishes it as
+ * <code>org.jbpm.process.workitem.kafka:type=KafkaProducer,clientId=...,id=...</code>; with
+ * <code>org.jbpm.process.workitem.kafka.jmx.enabled</code> set to false it stays reachable through
+ * {@link KafkaProducerRegistry#getMetrics()} for other metrics registries.
+ */
+public class KafkaProducerMetrics implements KafkaProducerMetricsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaProducerMetrics.class);
+
+    private static final String JMX_DOMAIN = "org.jbpm.process.workitem.kafka";
+    private static final String JMX_ENABLED = "org.jbpm.process.workitem.kafka.jmx.enabled";
+
+    private final String clientId;
+    private final String id;
+    private final Producer producer;
+    private final IntSupplier referenceCount;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    private ObjectName objectName;
+
+    KafkaProducerMetrics(String clientId, String id, Producer producer, IntSupplier referenceCount) {
+        this.clientId = clientId;
+        this.id = id;
+        this.producer = producer;
+        this.referenceCount = referenceCount;
+    }
+
+    /**
+     * Records the outcome of a record handed to the producer at <code>startNanos</code>
+     * (as given by {@link System#nanoTime()}).
+     */
+    public void recordAck(long startNanos, Exception exception) {
+        if (exception != null) {
+            errors.increment();
+            return;
+        }
+        long latency = System.nanoTime() - startNanos;
+        sent.increment();
+        totalLatencyNanos.add(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    @Override
+    public String getClientId() {
+        return clientId;
+    }
+
+    @Override
+    public int getReferenceCount() {
+        return referenceCount.getAsInt();
+    }
+
+    @Override
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getAverageAckLatencyMs() {
+        long count = sent.sum();
+        return count == 0 ? 0 : toMillis(totalLatencyNanos.sum()) / count;
+    }
+
+    @Override
+    public double getMaxAckLatencyMs() {
+        return toMillis(maxLatencyNanos.get());
+    }
+
+    @Override
+    public Map<String, Double> getProducerMetrics() {
+        Map<String, Double> values = new TreeMap<>();
+        Map<MetricName, ? extends Metric> metrics = producer.metrics();
+        if (metrics == null) {
+            return values;
+        }
+        metrics.forEach((name, metric) -> {
+            Object value = metric.metricValue();
+            if (value instanceof Number) {
+                String topic = name.tags().get("topic");
+                values.put(name.group() + ":" + name.name() + (topic != null ? "[" + topic + "]" : ""),
+                           ((Number) value).doubleValue());
+            }
+        });
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        sent.reset();
+        errors.reset();
+        totalLatencyNanos.reset();
+        maxLatencyNanos.set(0);
+    }
+
+    void register() {
+        if (!Boolean.parseBoolean(System.getProperty(JMX_ENABLED, "true"))) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(JMX_DOMAIN + ":type=KafkaProducer,clientId=" + ObjectName.quote(String.valueOf(clientId)) + ",id=" + id);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            objectName = name;
+        } catch (Exception e) {
+            LOG.warn("Unable to register kafka producer metrics for {} in JMX", clientId, e);
+        }
+    }
+
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            LOG.warn("Unable to unregister kafka producer metrics for {} from JMX", clientId, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
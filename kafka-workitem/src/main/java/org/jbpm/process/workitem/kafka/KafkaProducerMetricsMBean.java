@@ -0,0 +1,45 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.Map;
+
+/**
+ * JMX view of a pooled kafka producer: handler level counters and timings, from the moment a record
+ * is handed to the producer until it is acknowledged by the broker, plus the producer's own metrics.
+ */
+public interface KafkaProducerMetricsMBean {
+
+    String getClientId();
+
+    int getReferenceCount();
+
+    long getSentCount();
+
+    long getErrorCount();
+
+    double getAverageAckLatencyMs();
+
+    double getMaxAckLatencyMs();
+
+    /**
+     * @return numeric producer metrics keyed by <code>group:name</code>, suffixed with the topic
+     * for per-topic metrics, e.g. <code>producer-topic-metrics:record-send-rate[orders]</code>
+     */
+    Map<String, Double> getProducerMetrics();
+
+    void reset();
+}
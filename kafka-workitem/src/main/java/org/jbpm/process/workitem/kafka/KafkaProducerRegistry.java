@@ -0,0 +1,229 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of the kafka producers shared by all the kafka work item handlers of the node.
+ * Producers are keyed by an immutable fingerprint of their configuration, so handlers with
+ * equivalent configurations share the same producer, and are reference counted: a producer
+ * is flushed and closed only when the last handler using it releases it.
+ * Lookups go straight to the map, while producers of the same configuration are created, registered and
+ * released one at a time under a lock of their fingerprint, outside of the map, as creating one blocks.
+ */
+public final class KafkaProducerRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaProducerRegistry.class);
+
+    private static final Map<Fingerprint, Entry> producers = new ConcurrentHashMap<>();
+    private static final Map<Fingerprint, Object> locks = new ConcurrentHashMap<>();
+    private static final AtomicLong ids = new AtomicLong();
+
+    private KafkaProducerRegistry() {
+    }
+
+    /**
+     * Returns the producer for the given configuration, creating it with the factory when there is
+     * none yet, and registers a new reference to it.
+     */
+    static Fingerprint acquire(Properties config, Function<Properties, Producer> factory) {
+        Fingerprint fingerprint = new Fingerprint(config);
+        synchronized (lock(fingerprint)) {
+            Entry entry = producers.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(fingerprint, factory.apply(config));
+                producers.put(fingerprint, entry);
+                entry.metrics.register();
+                LOG.debug("Kafka producer created for {}", fingerprint);
+            }
+            entry.references++;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Registers a new reference to the given producer. A different producer already registered for the same
+     * configuration is replaced, the handlers using it then use the given one, and it is flushed and closed.
+     */
+    static Fingerprint register(Properties config, Producer producer) {
+        Fingerprint fingerprint = new Fingerprint(config);
+        Entry replaced = null;
+        synchronized (lock(fingerprint)) {
+            Entry entry = producers.get(fingerprint);
+            if (entry == null || entry.producer != producer) {
+                Entry registered = new Entry(fingerprint, producer);
+                if (entry != null) {
+                    registered.references = entry.references;
+                    entry.metrics.unregister();
+                    replaced = entry;
+                }
+                producers.put(fingerprint, registered);
+                registered.metrics.register();
+                entry = registered;
+            }
+            entry.references++;
+        }
+        if (replaced != null) {
+            LOG.debug("Kafka producer replaced for {}", fingerprint);
+            close(replaced.producer);
+        }
+        return fingerprint;
+    }
+
+    static Producer get(Fingerprint fingerprint) {
+        Entry entry = producers.get(fingerprint);
+        return entry != null ? entry.producer : null;
+    }
+
+    static Producer get(Properties config) {
+        return get(new Fingerprint(config));
+    }
+
+    static KafkaProducerMetrics getMetrics(Fingerprint fingerprint) {
+        Entry entry = producers.get(fingerprint);
+        return entry != null ? entry.metrics : null;
+    }
+
+    static KafkaProducerMetrics getMetrics(Properties config) {
+        return getMetrics(new Fingerprint(config));
+    }
+
+    /**
+     * @return the metrics of all the live producers, for metrics registries to poll
+     */
+    public static Collection<KafkaProducerMetrics> getMetrics() {
+        Collection<KafkaProducerMetrics> metrics = new ArrayList<>();
+        producers.values().forEach(entry -> metrics.add(entry.metrics));
+        return metrics;
+    }
+
+    /**
+     * Drops a reference to the producer, flushing and closing it when it was the last one.
+     */
+    static void release(Fingerprint fingerprint) {
+        Entry released;
+        synchronized (lock(fingerprint)) {
+            Entry entry = producers.get(fingerprint);
+            if (entry == null || --entry.references > 0) {
+                return;
+            }
+            producers.remove(fingerprint);
+            entry.metrics.unregister();
+            released = entry;
+        }
+        LOG.debug("Kafka producer closed for {}", fingerprint);
+        close(released.producer);
+    }
+
+    private static Object lock(Fingerprint fingerprint) {
+        // one lock object per configuration, kept as the configurations of a node are few
+        return locks.computeIfAbsent(fingerprint, key -> new Object());
+    }
+
+    private static void close(Producer producer) {
+        producer.flush();
+        producer.close();
+    }
+
+    /**
+     * @return number of live producers on the node
+     */
+    public static int getProducerCount() {
+        return producers.size();
+    }
+
+    /**
+     * @return number of handlers currently sharing the producer for the given configuration
+     */
+    public static int getReferenceCount(Properties config) {
+        Entry entry = producers.get(new Fingerprint(config));
+        return entry != null ? entry.references : 0;
+    }
+
+    private static class Entry {
+
+        private final Producer producer;
+        private final KafkaProducerMetrics metrics;
+        private volatile int references;
+
+        private Entry(Fingerprint fingerprint, Producer producer) {
+            this.producer = producer;
+            // a sequence rather than the hash of the configuration, different configurations may share a hash
+            this.metrics = new KafkaProducerMetrics(fingerprint.get(ProducerConfig.CLIENT_ID_CONFIG),
+                                                    Long.toString(ids.incrementAndGet()),
+                                                    producer,
+                                                    () -> references);
+        }
+    }
+
+    /**
+     * Immutable, normalized view of a producer configuration: keys and values are compared
+     * by their string representation, regardless of the order they were set in.
+     */
+    static final class Fingerprint {
+
+        private final SortedMap<String, String> config;
+        private final int hashCode;
+
+        Fingerprint(Properties properties) {
+            SortedMap<String, String> normalized = new TreeMap<>();
+            properties.forEach((key, value) -> normalized.put(String.valueOf(key), String.valueOf(value)));
+            this.config = Collections.unmodifiableSortedMap(normalized);
+            this.hashCode = normalized.hashCode();
+        }
+
+        String get(String key) {
+            return config.get(key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) obj;
+            return hashCode == other.hashCode && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return config.toString();
+        }
+    }
+}
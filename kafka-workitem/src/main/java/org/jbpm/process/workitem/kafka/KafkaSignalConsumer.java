@@ -0,0 +1,473 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.RecordDeserializationException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.kie.api.runtime.manager.Context;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.internal.runtime.Cacheable;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Consumes kafka topics and hands the records over to the process engine of a deployment, either
+ * signaling process instances or starting new ones. <br />
+ * The supported modes are:
+ * <ul>
+ * <li>SIGNAL: the record value is sent as the event of the signal named by <b>target</b>. When the record key
+ * holds a process instance id only that instance is signaled, otherwise the signal is broadcast.</li>
+ * <li>START: a new instance of the process id given by <b>target</b> is started for each record, with the record
+ * key and value as the <em>key</em> and <em>value</em> process variables.</li>
+ * </ul>
+ * Records are polled in batches of up to <code>max.poll.records</code>. The records of a partition signaling the same
+ * process instance are dispatched through one runtime engine, broadcast signals share one engine for the whole batch,
+ * and each started process gets its own engine as it gets its own context. The offset of each partition is committed
+ * up to the last record accepted by the engine. When the engine rejects a record, its partition is rewound to that
+ * record, which is polled again up to <code>retries</code> times before being logged and skipped, so the other records
+ * are delivered at least once, and those already dispatched to other process instances are not replayed. Only records
+ * that can never be dispatched, a key that is not a process instance id or a key or value that cannot be deserialized,
+ * are logged and skipped right away.
+ * Each consumer thread owns one kafka consumer of the group, so the partitions of the topics are spread over
+ * the configured number of threads.
+ */
+public class KafkaSignalConsumer implements Cacheable {
+
+    public enum Mode {
+        SIGNAL,
+        START
+    }
+
+    private static String DEFAULT_HOST = "localhost:9092";
+    private static String DEFAULT_GROUP_ID = "jBPM-Kafka-SignalConsumer";
+    private static String DEFAULT_DESERIALIZER = "org.apache.kafka.common.serialization.StringDeserializer";
+
+    private static String PROPERTY_PREFIX = "org.jbpm.process.workitem.kafka.consumer.";
+    private static String GLOBAL_MAX_POLL_RECORDS = PROPERTY_PREFIX + ConsumerConfig.MAX_POLL_RECORDS_CONFIG; // max.poll.records
+    private static String GLOBAL_FETCH_MIN_BYTES = PROPERTY_PREFIX + ConsumerConfig.FETCH_MIN_BYTES_CONFIG; // fetch.min.bytes
+    private static String GLOBAL_FETCH_MAX_WAIT_MS = PROPERTY_PREFIX + ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG; // fetch.max.wait.ms
+    private static String GLOBAL_AUTO_OFFSET_RESET = PROPERTY_PREFIX + ConsumerConfig.AUTO_OFFSET_RESET_CONFIG; // auto.offset.reset
+    // consumer specific settings, not passed to kafka
+    private static String GLOBAL_THREADS = PROPERTY_PREFIX + "threads";
+    private static String GLOBAL_POLL_TIMEOUT_MS = PROPERTY_PREFIX + "poll.timeout.ms";
+    private static String GLOBAL_RETRY_BACKOFF_MS = PROPERTY_PREFIX + "retry.backoff.ms";
+    private static String GLOBAL_RETRIES = PROPERTY_PREFIX + "retries";
+
+    public static final String KEY_VARIABLE = "key";
+    public static final String VALUE_VARIABLE = "value";
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaSignalConsumer.class);
+
+    // group of the broadcast signals
+    private static final Object BROADCAST = new Object();
+
+    private final RuntimeManager runtimeManager;
+    private final Mode mode;
+    private final String target;
+    private final Collection<String> topics;
+    private final int threads;
+    private final Supplier<Consumer<Object, Object>> consumerFactory;
+    private final long pollTimeoutMs = Long.getLong(GLOBAL_POLL_TIMEOUT_MS, 1000L);
+    private final long retryBackoffMs = Long.getLong(GLOBAL_RETRY_BACKOFF_MS, 1000L);
+    private final int retries = Integer.getInteger(GLOBAL_RETRIES, 3);
+
+    private final List<Consumer<Object, Object>> consumers = new CopyOnWriteArrayList<>();
+    private ExecutorService pollers;
+    private volatile boolean running;
+
+    public KafkaSignalConsumer(RuntimeManager runtimeManager,
+                               String mode,
+                               String target,
+                               String topics) {
+        this(runtimeManager, mode, target, topics, DEFAULT_HOST, DEFAULT_GROUP_ID, DEFAULT_DESERIALIZER, DEFAULT_DESERIALIZER);
+    }
+
+    public KafkaSignalConsumer(RuntimeManager runtimeManager,
+                               String mode,
+                               String target,
+                               String topics,
+                               String bootstrapServers,
+                               String groupId,
+                               String keyDeserializerClass,
+                               String valueDeserializerClass) {
+        this(runtimeManager, mode, target, topics, bootstrapServers, groupId, keyDeserializerClass, valueDeserializerClass,
+             KafkaConsumer.class.getClassLoader());
+    }
+
+    public KafkaSignalConsumer(RuntimeManager runtimeManager,
+                               String mode,
+                               String target,
+                               String topics,
+                               String bootstrapServers,
+                               String groupId,
+                               String keyDeserializerClass,
+                               String valueDeserializerClass,
+                               ClassLoader classLoader) {
+        this(runtimeManager,
+             Mode.valueOf(mode.trim().toUpperCase()),
+             target,
+             Arrays.asList(topics.trim().split("\\s*,\\s*")),
+             Integer.getInteger(GLOBAL_THREADS, 1),
+             consumerFactory(buildProperties(bootstrapServers, groupId, keyDeserializerClass, valueDeserializerClass), classLoader));
+    }
+
+    public KafkaSignalConsumer(RuntimeManager runtimeManager,
+                               Mode mode,
+                               String target,
+                               Collection<String> topics,
+                               int threads,
+                               Supplier<Consumer<Object, Object>> consumerFactory) {
+        this.runtimeManager = runtimeManager;
+        this.mode = mode;
+        this.target = target;
+        this.topics = topics;
+        this.threads = threads;
+        this.consumerFactory = consumerFactory;
+    }
+
+    private static Properties buildProperties(String bootstrapServers,
+                                              String groupId,
+                                              String keyDeserializerClass,
+                                              String valueDeserializerClass) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, !isEmpty(bootstrapServers) ? bootstrapServers : DEFAULT_HOST);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, !isEmpty(groupId) ? groupId : DEFAULT_GROUP_ID);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, !isEmpty(keyDeserializerClass) ? keyDeserializerClass : DEFAULT_DESERIALIZER);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, !isEmpty(valueDeserializerClass) ? valueDeserializerClass : DEFAULT_DESERIALIZER);
+        // offsets are committed once the engine accepted the batch
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+
+        // global variables
+        String maxPollRecords = System.getProperty(GLOBAL_MAX_POLL_RECORDS);
+        if (maxPollRecords != null) {
+            properties.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+        }
+        String fetchMinBytes = System.getProperty(GLOBAL_FETCH_MIN_BYTES);
+        if (fetchMinBytes != null) {
+            properties.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, fetchMinBytes);
+        }
+        String fetchMaxWaitMs = System.getProperty(GLOBAL_FETCH_MAX_WAIT_MS);
+        if (fetchMaxWaitMs != null) {
+            properties.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, fetchMaxWaitMs);
+        }
+        String autoOffsetReset = System.getProperty(GLOBAL_AUTO_OFFSET_RESET);
+        if (autoOffsetReset != null) {
+            properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, autoOffsetReset);
+        }
+        return properties;
+    }
+
+    private static Supplier<Consumer<Object, Object>> consumerFactory(Properties properties, ClassLoader classLoader) {
+        return () -> {
+            // it is needed to change the classloader to KIEURLClassLoader for deserializers to be resolved and then, set it back
+            ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
+            try {
+                Thread.currentThread().setContextClassLoader(classLoader);
+                return new KafkaConsumer<>(properties);
+            } finally {
+                Thread.currentThread().setContextClassLoader(oldClassLoader);
+            }
+        };
+    }
+
+    private static boolean isEmpty(String val) {
+        return val == null || val.isEmpty();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        pollers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            pollers.execute(this::poll);
+        }
+        LOG.info("Kafka Signal Consumer started with {} threads in {} mode for {} on topics {}", threads, mode, target, topics);
+    }
+
+    private void poll() {
+        Consumer<Object, Object> consumer = consumerFactory.get();
+        consumers.add(consumer);
+        // the record currently retried in each partition
+        Map<TopicPartition, Retry> pending = new HashMap<>();
+        try {
+            consumer.subscribe(topics);
+            while (running) {
+                ConsumerRecords<Object, Object> records;
+                try {
+                    records = consumer.poll(Duration.ofMillis(pollTimeoutMs));
+                } catch (WakeupException e) {
+                    throw e;
+                } catch (RecordDeserializationException e) {
+                    LOG.error("Kafka Signal Consumer skipped record {} of {} which cannot be deserialized", e.offset(), e.topicPartition(), e);
+                    consumer.seek(e.topicPartition(), e.offset() + 1);
+                    continue;
+                } catch (KafkaException e) {
+                    LOG.error("Kafka Signal Consumer failed to poll topics {}", topics, e);
+                    TimeUnit.MILLISECONDS.sleep(retryBackoffMs);
+                    continue;
+                }
+                if (records.isEmpty()) {
+                    continue;
+                }
+                boolean completed;
+                try {
+                    completed = dispatch(consumer, records, pending);
+                } catch (WakeupException e) {
+                    throw e;
+                } catch (KafkaException e) {
+                    // e.g. the commit failed after a rebalance, the records are polled again by the new owner
+                    LOG.error("Kafka Signal Consumer failed to commit the offsets of {} records", records.count(), e);
+                    completed = false;
+                }
+                if (!completed) {
+                    TimeUnit.MILLISECONDS.sleep(retryBackoffMs);
+                }
+            }
+        } catch (WakeupException e) {
+            // expected on close
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            LOG.error("Kafka Signal Consumer stopped polling topics {}", topics, e);
+        } finally {
+            consumers.remove(consumer);
+            consumer.close();
+        }
+    }
+
+    /**
+     * Dispatches the records partition by partition and commits the offsets of the records handled.
+     * A partition whose record was rejected by the engine is rewound to that record and its following records are left for the next poll.
+     * @return false when a record has to be retried
+     */
+    private boolean dispatch(Consumer<Object, Object> consumer,
+                             ConsumerRecords<Object, Object> records,
+                             Map<TopicPartition, Retry> pending) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        boolean completed = true;
+        // broadcast signals share a single engine for the whole batch
+        RuntimeEngine[] broadcastEngine = new RuntimeEngine[1];
+        try {
+            for (TopicPartition partition : records.partitions()) {
+                List<ConsumerRecord<Object, Object>> partitionRecords = records.records(partition);
+                long failedOffset = dispatch(partition, partitionRecords, pending, broadcastEngine);
+                if (failedOffset < 0) {
+                    offsets.put(partition, new OffsetAndMetadata(partitionRecords.get(partitionRecords.size() - 1).offset() + 1));
+                    continue;
+                }
+                consumer.seek(partition, failedOffset);
+                completed = false;
+                if (failedOffset > partitionRecords.get(0).offset()) {
+                    offsets.put(partition, new OffsetAndMetadata(failedOffset));
+                }
+            }
+        } finally {
+            if (broadcastEngine[0] != null) {
+                runtimeManager.disposeRuntimeEngine(broadcastEngine[0]);
+            }
+            if (!offsets.isEmpty()) {
+                consumer.commitSync(offsets);
+                LOG.debug("Kafka Signal Consumer accepted records up to {}", offsets);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Dispatches the records of a partition grouped by target, each group through one engine.
+     * @return the offset of the first record to poll again, -1 when all the records were handled
+     */
+    private long dispatch(TopicPartition partition,
+                          List<ConsumerRecord<Object, Object>> records,
+                          Map<TopicPartition, Retry> pending,
+                          RuntimeEngine[] broadcastEngine) {
+        Retry retry = pending.get(partition);
+        Map<Object, List<ConsumerRecord<Object, Object>>> groups = new LinkedHashMap<>();
+        for (ConsumerRecord<Object, Object> record : records) {
+            if (retry != null && retry.dispatched.contains(record.offset())) {
+                // dispatched before the partition was rewound
+                continue;
+            }
+            Object group = groupOf(record);
+            if (group == null) {
+                LOG.error("Kafka Signal Consumer skipped record {} of {} whose key {} is not a process instance id", record.offset(), partition, record.key());
+                continue;
+            }
+            groups.computeIfAbsent(group, g -> new ArrayList<>()).add(record);
+        }
+
+        long failedOffset = Long.MAX_VALUE;
+        Exception failure = null;
+        Set<Long> dispatched = new HashSet<>();
+        for (Map.Entry<Object, List<ConsumerRecord<Object, Object>>> group : groups.entrySet()) {
+            if (group.getValue().get(0).offset() > failedOffset) {
+                continue;
+            }
+            RuntimeEngine engine = null;
+            boolean broadcast = group.getKey() == BROADCAST;
+            ConsumerRecord<Object, Object> current = group.getValue().get(0);
+            try {
+                if (broadcast) {
+                    if (broadcastEngine[0] == null) {
+                        broadcastEngine[0] = runtimeManager.getRuntimeEngine(EmptyContext.get());
+                    }
+                    engine = broadcastEngine[0];
+                } else {
+                    engine = runtimeManager.getRuntimeEngine(contextOf(group.getKey()));
+                }
+                for (ConsumerRecord<Object, Object> record : group.getValue()) {
+                    if (record.offset() > failedOffset) {
+                        break;
+                    }
+                    current = record;
+                    try {
+                        dispatch(engine, group.getKey(), record);
+                    } catch (WakeupException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        if (retry == null || retry.offset != record.offset() || retry.attempts < retries) {
+                            throw e;
+                        }
+                        LOG.error("Kafka Signal Consumer skipped record {} of {} after {} failed attempts", record.offset(), partition, retry.attempts + 1, e);
+                    }
+                    dispatched.add(record.offset());
+                }
+            } catch (WakeupException e) {
+                throw e;
+            } catch (Exception e) {
+                if (current.offset() < failedOffset) {
+                    failedOffset = current.offset();
+                    failure = e;
+                }
+            } finally {
+                if (engine != null && !broadcast) {
+                    runtimeManager.disposeRuntimeEngine(engine);
+                }
+            }
+        }
+
+        if (failure == null) {
+            pending.remove(partition);
+            return -1;
+        }
+        if (retry == null) {
+            retry = new Retry();
+            pending.put(partition, retry);
+        }
+        if (retry.offset != failedOffset) {
+            retry.offset = failedOffset;
+            retry.attempts = 0;
+        }
+        retry.attempts++;
+        // the records after the rewind point that were dispatched are not dispatched again
+        long rewind = failedOffset;
+        retry.dispatched.removeIf(offset -> offset < rewind);
+        dispatched.stream().filter(offset -> offset > rewind).forEach(retry.dispatched::add);
+        LOG.warn("Kafka Signal Consumer failed to dispatch record {} of {}, it will be polled again", failedOffset, partition, failure);
+        return failedOffset;
+    }
+
+    /**
+     * @return the target of the record, null when the record can never be dispatched
+     */
+    private Object groupOf(ConsumerRecord<Object, Object> record) {
+        if (mode == Mode.START) {
+            // each process is started in its own context
+            return record;
+        }
+        if (record.key() == null) {
+            return BROADCAST;
+        }
+        try {
+            return Long.valueOf(record.key().toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Context<?> contextOf(Object group) {
+        return mode == Mode.START ? ProcessInstanceIdContext.get() : ProcessInstanceIdContext.get((Long) group);
+    }
+
+    private void dispatch(RuntimeEngine engine,
+                          Object group,
+                          ConsumerRecord<Object, Object> record) {
+        if (mode == Mode.START) {
+            Map<String, Object> variables = new HashMap<>();
+            variables.put(KEY_VARIABLE, record.key());
+            variables.put(VALUE_VARIABLE, record.value());
+            engine.getKieSession().startProcess(target, variables);
+        } else if (group == BROADCAST) {
+            engine.getKieSession().signalEvent(target, record.value());
+        } else {
+            engine.getKieSession().signalEvent(target, record.value(), (Long) group);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        consumers.forEach(Consumer::wakeup);
+        pollers.shutdown();
+        try {
+            pollers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Kafka Signal Consumer stopped for {} on topics {}", target, topics);
+    }
+
+    private static class Retry {
+
+        private long offset = -1;
+        private int attempts;
+        // offsets following the retried record that were already dispatched
+        private final Set<Long> dispatched = new HashSet<>();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffers the records produced within a single process transaction and publishes them
+ * in one kafka transaction right before the process transaction commits.
+ * A failure while publishing aborts the kafka transaction and is rethrown, so the process
+ * transaction is rolled back as well. When the process transaction is rolled back before
+ * reaching the commit phase the buffered records are just discarded.
+ * <p>
+ * As the kafka transaction commits first, see {@link KafkaWorkItemHandler#isTransactional()} for the guarantees.
+ * It runs on a producer leased from the pool of the handler for its duration only.
+ */
+class KafkaTransactionSynchronization implements TransactionSynchronization {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaTransactionSynchronization.class);
+
+    private final KafkaTransactionalProducers producers;
+    private final List<ProducerRecord> records = new ArrayList<>();
+    private final List<Long> enqueued = new ArrayList<>();
+
+    KafkaTransactionSynchronization(KafkaTransactionalProducers producers) {
+        this.producers = producers;
+    }
+
+    void add(ProducerRecord record) {
+        records.add(record);
+        enqueued.add(System.nanoTime());
+    }
+
+    @Override
+    public void beforeCompletion() {
+        publish();
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        records.clear();
+        enqueued.clear();
+    }
+
+    void publish() {
+        if (records.isEmpty()) {
+            return;
+        }
+        // a transactional producer can only have one open transaction at a time, it is leased for this one
+        KafkaProducerRegistry.Fingerprint key = producers.lease();
+        Producer producer = KafkaProducerRegistry.get(key);
+        KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(key);
+        try {
+            producer.beginTransaction();
+            for (ProducerRecord record : records) {
+                producer.send(record);
+            }
+            producer.commitTransaction();
+            enqueued.forEach(start -> metrics.recordAck(start, null));
+            LOG.debug("Kafka transaction committed with {} records", records.size());
+        } catch (RuntimeException e) {
+            LOG.error("Kafka transaction with {} records failed, aborting it", records.size(), e);
+            enqueued.forEach(start -> metrics.recordAck(start, e));
+            try {
+                producer.abortTransaction();
+            } catch (RuntimeException abortException) {
+                e.addSuppressed(abortException);
+            }
+            throw e;
+        } finally {
+            records.clear();
+            enqueued.clear();
+            producers.giveBack(key);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transactional producers of a handler, leased to one process transaction at a time: a kafka producer
+ * can only have one open transaction, so a pool lets concurrent process transactions publish in parallel
+ * instead of queuing on a single producer. Each producer of the pool has its own <code>transactional.id</code>.
+ */
+class KafkaTransactionalProducers {
+
+    private final List<KafkaProducerRegistry.Fingerprint> producers;
+    private final BlockingQueue<KafkaProducerRegistry.Fingerprint> idle;
+    private final long leaseTimeoutMs;
+
+    KafkaTransactionalProducers(List<KafkaProducerRegistry.Fingerprint> producers, long leaseTimeoutMs) {
+        this.producers = Collections.unmodifiableList(new ArrayList<>(producers));
+        this.idle = new ArrayBlockingQueue<>(producers.size(), false, producers);
+        this.leaseTimeoutMs = leaseTimeoutMs;
+    }
+
+    /**
+     * Waits for an idle producer, failing when none is given back within the lease timeout.
+     */
+    KafkaProducerRegistry.Fingerprint lease() {
+        try {
+            KafkaProducerRegistry.Fingerprint producer = idle.poll(leaseTimeoutMs, TimeUnit.MILLISECONDS);
+            if (producer == null) {
+                throw new IllegalStateException("No transactional kafka producer available after " + leaseTimeoutMs + " ms, all "
+                                                        + producers.size() + " are publishing");
+            }
+            return producer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a transactional kafka producer", e);
+        }
+    }
+
+    void giveBack(KafkaProducerRegistry.Fingerprint producer) {
+        idle.offer(producer);
+    }
+
+    List<KafkaProducerRegistry.Fingerprint> getProducers() {
+        return producers;
+    }
+
+    void release() {
+        producers.forEach(KafkaProducerRegistry::release);
+    }
+}
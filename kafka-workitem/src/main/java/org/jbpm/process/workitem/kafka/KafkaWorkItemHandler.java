@@ -15,17 +15,29 @@
  */
 package org.jbpm.process.workitem.kafka;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
 import org.jbpm.executor.impl.wih.AsyncWorkItemHandlerCmdCallback;
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
@@ -40,10 +52,12 @@ import org.kie.api.executor.Command;
 import org.kie.api.executor.CommandContext;
 import org.kie.api.executor.ExecutionResults;
 import org.kie.api.executor.ExecutorService;
+import org.kie.api.runtime.manager.RuntimeEngine;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemManager;
 import org.kie.internal.runtime.manager.InternalRuntimeManager;
 import org.kie.internal.runtime.Cacheable;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -84,20 +98,44 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
     private static String GLOBAL_RETRIES = PROPERTY_PREFIX + CommonClientConfigs.RETRIES_CONFIG; // retries
     private static String GLOBAL_RETRY_BACKOFF_MS = PROPERTY_PREFIX + CommonClientConfigs.RETRY_BACKOFF_MS_CONFIG; // retry.backoff.ms
     private static String GLOBAL_ENABLE_IDEMPOTENCE = PROPERTY_PREFIX + ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG; // enable.idempotence
+    private static String GLOBAL_BATCH_SIZE = PROPERTY_PREFIX + ProducerConfig.BATCH_SIZE_CONFIG; // batch.size
+    private static String GLOBAL_LINGER_MS = PROPERTY_PREFIX + ProducerConfig.LINGER_MS_CONFIG; // linger.ms
+    private static String GLOBAL_MAX_IN_FLIGHT_REQUESTS = PROPERTY_PREFIX + ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION; // max.in.flight.requests.per.connection
+    private static String GLOBAL_TRANSACTIONAL_ID = PROPERTY_PREFIX + ProducerConfig.TRANSACTIONAL_ID_CONFIG; // transactional.id
+    // handler specific settings, not passed to the producer
+    private static String GLOBAL_CALLBACK_COMPLETION = PROPERTY_PREFIX + "callback.completion";
+    private static String GLOBAL_CALLBACK_THREADS = PROPERTY_PREFIX + "callback.threads";
+    private static String GLOBAL_TRANSACTIONAL_PRODUCERS = PROPERTY_PREFIX + "transactional.producers";
+    private static String GLOBAL_TRANSACTIONAL_LEASE_TIMEOUT_MS = PROPERTY_PREFIX + "transactional.lease.timeout.ms";
 
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaWorkItemHandler.class);
-    private static Map<Properties, Producer> producers = new ConcurrentHashMap<Properties, Producer>();
 
     private ExecutorService executorService;
+    private InternalRuntimeManager runtimeManager;
+    private java.util.concurrent.ExecutorService callbackExecutor;
     private Properties properties;
+    private KafkaProducerRegistry.Fingerprint producerKey;
+    private KafkaTransactionalProducers transactionalProducers;
+    private boolean closed;
 
     private static final String RESULTS_VALUE = "Result";
+    private static final String TRANSACTION_RESOURCE_PREFIX = "kafka-workitem-";
+
+    private TransactionManager transactionManager;
 
     
     public KafkaWorkItemHandler(Properties properties, Producer producer) {
+        this(properties, producer, null);
+    }
+
+    public KafkaWorkItemHandler(Properties properties, Producer producer, InternalRuntimeManager runtimeManager) {
         this.properties = properties;
-        producers.put(properties, producer);
+        this.producerKey = KafkaProducerRegistry.register(properties, producer);
+        if (isTransactional()) {
+            this.transactionalProducers = new KafkaTransactionalProducers(Collections.singletonList(producerKey), getLeaseTimeoutMs());
+        }
+        initCallbackCompletion(runtimeManager);
     }
 
     public KafkaWorkItemHandler( ) {
@@ -178,8 +216,31 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
         if(enableIdempotence != null) {
             this.properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, enableIdempotence);
         }
+        String batchSize = System.getProperty(GLOBAL_BATCH_SIZE);
+        if(batchSize != null) {
+            this.properties.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        }
+        String lingerMs = System.getProperty(GLOBAL_LINGER_MS);
+        if(lingerMs != null) {
+            this.properties.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        }
+        String maxInFlightRequests = System.getProperty(GLOBAL_MAX_IN_FLIGHT_REQUESTS);
+        if(maxInFlightRequests != null) {
+            this.properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, maxInFlightRequests);
+        }
+        String transactionalId = System.getProperty(GLOBAL_TRANSACTIONAL_ID);
+        if(transactionalId != null) {
+            // the id must be unique per producer across the cluster, so it is combined with the client id and the node
+            this.properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG,
+                                transactionalId + "-" + this.properties.get(ProducerConfig.CLIENT_ID_CONFIG) + "-" + getNodeId());
+        }
 
-        if(runtimeManager != null) {
+        initCallbackCompletion(runtimeManager);
+        if(isTransactional()) {
+            LOG.info("Kafka WorkItem Handler Producer created with transactions {}", properties);
+        } else if(callbackExecutor != null) {
+            LOG.info("Kafka WorkItem Handler Producer created with callback completion {}", properties);
+        } else if(runtimeManager != null) {
             this.executorService = (ExecutorService) runtimeManager.getEnvironment().getEnvironment().get("ExecutorService");
             LOG.info("Kafka WorkItem Handler Producer created with async {}", properties);
         } else {
@@ -191,12 +252,107 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
         ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
         try {
           Thread.currentThread().setContextClassLoader(classLoader);
-          producers.computeIfAbsent(properties, (config) -> new KafkaProducer(config));
+          if (isTransactional()) {
+              // one producer per concurrent kafka transaction, each with its own transactional id
+              int size = Math.max(1, Integer.getInteger(GLOBAL_TRANSACTIONAL_PRODUCERS, 4));
+              List<KafkaProducerRegistry.Fingerprint> keys = new ArrayList<>();
+              for (int i = 0; i < size; i++) {
+                  Properties config = new Properties();
+                  config.putAll(properties);
+                  config.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, properties.get(ProducerConfig.TRANSACTIONAL_ID_CONFIG) + "-" + i);
+                  keys.add(KafkaProducerRegistry.acquire(config, (c) -> {
+                      Producer producer = new KafkaProducer(c);
+                      producer.initTransactions();
+                      return producer;
+                  }));
+              }
+              this.producerKey = keys.get(0);
+              this.transactionalProducers = new KafkaTransactionalProducers(keys, getLeaseTimeoutMs());
+          } else {
+              this.producerKey = KafkaProducerRegistry.acquire(properties, KafkaProducer::new);
+          }
         } finally {
           Thread.currentThread().setContextClassLoader(oldClassLoader);
         }
     }
 
+    /**
+     * Callback completion is enabled with the <code>org.jbpm.process.workitem.kafka.callback.completion</code>
+     * system property and requires a runtime manager: records are handed to the producer without waiting for
+     * the broker acknowledgement, so they can be batched according to <code>batch.size</code> and <code>linger.ms</code>,
+     * and the work item is completed (or aborted on failure) once the acknowledgement arrives and the process
+     * transaction that created the work item has committed, as the work item cannot be found before.
+     */
+    private void initCallbackCompletion(InternalRuntimeManager runtimeManager) {
+        if (runtimeManager != null && !isTransactional() && Boolean.parseBoolean(System.getProperty(GLOBAL_CALLBACK_COMPLETION))) {
+            this.runtimeManager = runtimeManager;
+            int threads = Integer.parseInt(System.getProperty(GLOBAL_CALLBACK_THREADS,
+                                                              String.valueOf(Runtime.getRuntime().availableProcessors())));
+            // completion goes through the engine, so it is moved out of the producer I/O thread
+            this.callbackExecutor = Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    /**
+     * Transactional mode is enabled when a <code>transactional.id</code> is configured (through the
+     * <code>org.jbpm.process.workitem.kafka.transactional.id</code> system property, suffixed with the client id
+     * and the node id, see {@link #getNodeId()}).
+     * Records are then buffered for the duration of the process transaction and published in a single
+     * kafka transaction when it commits, so nothing is published by a transaction that is rolled back.
+     * A producer given to the handler directly must already have its transactions initialized.
+     * <p>
+     * Publishing is best effort, not exactly once: the kafka transaction commits right before the process transaction,
+     * so the records stay published if the process transaction then fails to commit. Concurrent process transactions
+     * publish on a pool of <code>org.jbpm.process.workitem.kafka.transactional.producers</code> producers (4 by default).
+     */
+    protected boolean isTransactional() {
+        return properties.containsKey(ProducerConfig.TRANSACTIONAL_ID_CONFIG);
+    }
+
+    private static long getLeaseTimeoutMs() {
+        return Long.getLong(GLOBAL_TRANSACTIONAL_LEASE_TIMEOUT_MS, 60000L);
+    }
+
+    private void sendInTransaction(ProducerRecord record) {
+        TransactionManager tm = getTransactionManager();
+        if (tm.getStatus() != TransactionManager.STATUS_ACTIVE) {
+            // no process transaction to join, publish right away in a kafka transaction of its own
+            KafkaTransactionSynchronization synchronization = new KafkaTransactionSynchronization(transactionalProducers);
+            synchronization.add(record);
+            synchronization.publish();
+            return;
+        }
+        String resourceKey = TRANSACTION_RESOURCE_PREFIX + properties.get(ProducerConfig.TRANSACTIONAL_ID_CONFIG);
+        KafkaTransactionSynchronization synchronization = (KafkaTransactionSynchronization) tm.getResource(resourceKey);
+        if (synchronization == null) {
+            synchronization = new KafkaTransactionSynchronization(transactionalProducers);
+            tm.putResource(resourceKey, synchronization);
+            tm.registerTransactionSynchronization(synchronization);
+        }
+        synchronization.add(record);
+    }
+
+    /**
+     * @return id of this node in the cluster: the kie server id when set, otherwise the process id and host name,
+     * so the nodes running the same deployment do not fence each other's transactional producers
+     */
+    protected static String getNodeId() {
+        String serverId = System.getProperty("org.kie.server.id");
+        return serverId != null ? serverId : ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    protected TransactionManager getTransactionManager() {
+        if (transactionManager == null) {
+            transactionManager = TransactionManagerFactory.get().newTransactionManager();
+        }
+        return transactionManager;
+    }
+
+    // for testing
+    void setTransactionManager(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
     public boolean isEmpty(String val) {
         return val == null || val.isEmpty();
     }
@@ -209,7 +365,15 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
             Object value = ctx.getData().get("value");
             Properties properties = (Properties) ctx.getData().get("producerProperties");
             LOG.debug("Kafka WorkItem Handler {} about to send to topic {} key {} and value {}", properties, topic, key, value);
-            producers.get(properties).send(new ProducerRecord(topic, key, value)).get();
+            KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(properties);
+            long start = System.nanoTime();
+            try {
+                KafkaProducerRegistry.get(properties).send(new ProducerRecord(topic, key, value)).get();
+                metrics.recordAck(start, null);
+            } catch (Exception e) {
+                metrics.recordAck(start, e);
+                throw e;
+            }
             LOG.debug("Kafka WorkItem Handler {} sent to topic {} key {} and value {}", properties, topic, key, value);
             ExecutionResults results = new ExecutionResults();
             results.setData(RESULTS_VALUE, "success");
@@ -228,12 +392,42 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
             Object key = workItem.getParameter("Key");
             Object value = workItem.getParameter("Value");
 
-            // check whether is async or not
-            if(this.executorService == null || !this.executorService.isActive()) {
-                producers.get(this.properties).send(new ProducerRecord(topic, 
-                                                 key, 
-                                                 value))
-                        .get();
+            // check whether is transactional, async or not
+            if(isTransactional()) {
+                sendInTransaction(new ProducerRecord(topic,
+                                                     key,
+                                                     value));
+                Map<String, Object> results = new HashMap<String, Object>();
+                results.put(RESULTS_VALUE, "success");
+                manager.completeWorkItem(workItem.getId(), results);
+            } else if(this.callbackExecutor != null) {
+                long processInstanceId = getProcessInstanceId(workItem);
+                long workItemId = workItem.getId();
+                PendingCompletion completion = new PendingCompletion(processInstanceId, workItemId);
+                TransactionManager tm = getTransactionManager();
+                if (tm.getStatus() == TransactionManager.STATUS_ACTIVE) {
+                    tm.registerTransactionSynchronization(completion);
+                } else {
+                    completion.committed();
+                }
+                KafkaProducerRegistry.get(producerKey).send(new ProducerRecord(topic,
+                                                                               key,
+                                                                               value),
+                                                            new CompletionCallback(completion, System.nanoTime()));
+                LOG.debug("Kafka WorkItem Handler {} enqueued record for work item {} to topic {}", properties, workItemId, topic);
+            } else if(this.executorService == null || !this.executorService.isActive()) {
+                KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(producerKey);
+                long start = System.nanoTime();
+                try {
+                    KafkaProducerRegistry.get(producerKey).send(new ProducerRecord(topic, 
+                                                     key, 
+                                                     value))
+                            .get();
+                    metrics.recordAck(start, null);
+                } catch (Exception e) {
+                    metrics.recordAck(start, e);
+                    throw e;
+                }
                 Map<String, Object> results = new HashMap<String, Object>();
                 results.put(RESULTS_VALUE, "success");
                 manager.completeWorkItem(workItem.getId(), results);
@@ -265,11 +459,127 @@ public class KafkaWorkItemHandler extends AbstractLogOrThrowWorkItemHandler impl
     }
 
     @Override
-    public void close() {
-        if (producers != null && producers.containsKey(this.properties)) {
-            Producer producer = producers.remove(this.properties);
-            producer.flush();
-            producer.close();
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (callbackExecutor != null) {
+            // the producer may be kept open by other handlers, so the records of this handler still in flight
+            // are flushed to have their callbacks run while the executor accepts their completions
+            Producer producer = KafkaProducerRegistry.get(producerKey);
+            if (producer != null) {
+                try {
+                    producer.flush();
+                } catch (RuntimeException e) {
+                    LOG.warn("Kafka WorkItem Handler {} failed to flush pending records", properties, e);
+                }
+            }
+        }
+        // the producers are only closed once no other handler is using them
+        if (transactionalProducers != null) {
+            transactionalProducers.release();
+        } else {
+            KafkaProducerRegistry.release(producerKey);
+        }
+        if (callbackExecutor != null) {
+            // let pending acknowledgements complete their work items
+            callbackExecutor.shutdown();
+            try {
+                callbackExecutor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class CompletionCallback implements Callback {
+
+        private final PendingCompletion completion;
+        private final long start;
+        // resolved upfront as the producer may be released while records are in flight
+        private final KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(producerKey);
+
+        private CompletionCallback(PendingCompletion completion, long start) {
+            this.completion = completion;
+            this.start = start;
+        }
+
+        @Override
+        public void onCompletion(RecordMetadata metadata, Exception exception) {
+            metrics.recordAck(start, exception);
+            completion.acknowledged(exception);
+        }
+    }
+
+    /**
+     * Completion of a work item waiting for both the broker acknowledgement and the commit of the process transaction
+     * that created the work item, whichever comes last dispatches it. Nothing is dispatched when that transaction
+     * rolls back, the work item does not exist then.
+     */
+    private class PendingCompletion implements TransactionSynchronization {
+
+        private final long processInstanceId;
+        private final long workItemId;
+        private final AtomicInteger pending = new AtomicInteger(2);
+        private volatile Exception exception;
+
+        private PendingCompletion(long processInstanceId, long workItemId) {
+            this.processInstanceId = processInstanceId;
+            this.workItemId = workItemId;
+        }
+
+        void acknowledged(Exception exception) {
+            this.exception = exception;
+            countDown();
+        }
+
+        void committed() {
+            countDown();
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == TransactionManager.STATUS_COMMITTED) {
+                committed();
+            } else {
+                LOG.debug("Transaction of work item {} rolled back, it will not be completed", workItemId);
+            }
+        }
+
+        private void countDown() {
+            if (pending.decrementAndGet() == 0) {
+                // completion goes through the engine, so it is moved out of the producer I/O and transaction threads
+                try {
+                    callbackExecutor.execute(() -> completeWorkItem(processInstanceId, workItemId, exception));
+                } catch (RejectedExecutionException e) {
+                    // the handler was closed meanwhile
+                    completeWorkItem(processInstanceId, workItemId, exception);
+                }
+            }
+        }
+    }
+
+    private void completeWorkItem(long processInstanceId, long workItemId, Exception exception) {
+        RuntimeEngine engine = runtimeManager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+        try {
+            WorkItemManager workItemManager = engine.getKieSession().getWorkItemManager();
+            if (exception == null) {
+                Map<String, Object> results = new HashMap<String, Object>();
+                results.put(RESULTS_VALUE, "success");
+                workItemManager.completeWorkItem(workItemId, results);
+            } else {
+                LOG.error("Kafka WorkItem Handler {} failed to send record of work item {}, aborting it", properties, workItemId, exception);
+                workItemManager.abortWorkItem(workItemId);
+            }
+        } catch (Exception e) {
+            LOG.error("Unable to complete work item {} of process instance {}", workItemId, processInstanceId, e);
+        } finally {
+            runtimeManager.disposeRuntimeEngine(engine);
         }
     }
 
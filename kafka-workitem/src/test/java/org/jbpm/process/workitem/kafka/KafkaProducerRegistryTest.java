@@ -0,0 +1,127 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class KafkaProducerRegistryTest {
+
+    @Test
+    public void testEquivalentConfigsShareProducer() {
+        Producer producer = mock(Producer.class);
+        AtomicInteger created = new AtomicInteger();
+        int producerCount = KafkaProducerRegistry.getProducerCount();
+
+        KafkaProducerRegistry.Fingerprint first = KafkaProducerRegistry.acquire(config("shared", 10), c -> {
+            created.incrementAndGet();
+            return producer;
+        });
+        Properties equivalent = new Properties();
+        equivalent.put(ProducerConfig.LINGER_MS_CONFIG, "10");
+        equivalent.put(ProducerConfig.CLIENT_ID_CONFIG, "shared");
+        KafkaProducerRegistry.Fingerprint second = KafkaProducerRegistry.acquire(equivalent, c -> {
+            created.incrementAndGet();
+            return mock(Producer.class);
+        });
+
+        assertEquals(first, second);
+        assertEquals(1, created.get());
+        assertSame(producer, KafkaProducerRegistry.get(second));
+        assertEquals(producerCount + 1, KafkaProducerRegistry.getProducerCount());
+        assertEquals(2, KafkaProducerRegistry.getReferenceCount(equivalent));
+
+        KafkaProducerRegistry.release(first);
+        verify(producer, never()).close();
+        assertSame(producer, KafkaProducerRegistry.get(first));
+
+        KafkaProducerRegistry.release(second);
+        verify(producer).flush();
+        verify(producer).close();
+        assertNull(KafkaProducerRegistry.get(first));
+        assertEquals(producerCount, KafkaProducerRegistry.getProducerCount());
+    }
+
+    @Test
+    public void testDifferentConfigsDoNotShareProducer() {
+        KafkaProducerRegistry.Fingerprint first = KafkaProducerRegistry.acquire(config("first", 5), c -> mock(Producer.class));
+        KafkaProducerRegistry.Fingerprint second = KafkaProducerRegistry.acquire(config("first", 50), c -> mock(Producer.class));
+        try {
+            assertEquals(1, KafkaProducerRegistry.getReferenceCount(config("first", 5)));
+            assertEquals(1, KafkaProducerRegistry.getReferenceCount(config("first", 50)));
+        } finally {
+            KafkaProducerRegistry.release(first);
+            KafkaProducerRegistry.release(second);
+        }
+    }
+
+    @Test
+    public void testRegisterReplacesAndClosesPreviousProducer() {
+        Producer previous = mock(Producer.class);
+        Producer replacement = mock(Producer.class);
+        KafkaProducerRegistry.Fingerprint first = KafkaProducerRegistry.register(config("registered", 1), previous);
+        KafkaProducerRegistry.Fingerprint second = KafkaProducerRegistry.register(config("registered", 1), replacement);
+        try {
+            verify(previous).close();
+            assertSame(replacement, KafkaProducerRegistry.get(first));
+            assertEquals(2, KafkaProducerRegistry.getReferenceCount(config("registered", 1)));
+        } finally {
+            KafkaProducerRegistry.release(first);
+            KafkaProducerRegistry.release(second);
+        }
+        verify(replacement).close();
+    }
+
+    @Test
+    public void testProducerCreatedOnceUnderConcurrentAcquire() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        Runnable acquire = () -> KafkaProducerRegistry.acquire(config("concurrent", 1), c -> {
+            created.incrementAndGet();
+            return mock(Producer.class);
+        });
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(acquire);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, created.get());
+        assertEquals(threads.length, KafkaProducerRegistry.getReferenceCount(config("concurrent", 1)));
+        for (int i = 0; i < threads.length; i++) {
+            KafkaProducerRegistry.release(new KafkaProducerRegistry.Fingerprint(config("concurrent", 1)));
+        }
+    }
+
+    private Properties config(String clientId, int lingerMs) {
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.CLIENT_ID_CONFIG, clientId);
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        return properties;
+    }
+}
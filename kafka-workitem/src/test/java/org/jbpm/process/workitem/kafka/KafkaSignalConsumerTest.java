@@ -0,0 +1,260 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.Context;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeManager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class KafkaSignalConsumerTest {
+
+    private static final String TOPIC = "myTopic";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private KieSession kieSession;
+    private RuntimeManager runtimeManager;
+    private Consumer<Object, Object> consumer;
+    private KafkaSignalConsumer signalConsumer;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void init() {
+        kieSession = mock(KieSession.class);
+        RuntimeEngine engine = mock(RuntimeEngine.class);
+        when(engine.getKieSession()).thenReturn(kieSession);
+        runtimeManager = mock(RuntimeManager.class);
+        when(runtimeManager.getRuntimeEngine(any(Context.class))).thenReturn(engine);
+        consumer = mock(Consumer.class);
+    }
+
+    @After
+    public void cleanup() {
+        if (signalConsumer != null) {
+            signalConsumer.close();
+        }
+    }
+
+    @Test
+    public void testSignalProcessInstances() {
+        pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, "1", "first"),
+                 new ConsumerRecord<>(TOPIC, 0, 1, "2", "second"));
+
+        startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+        verify(kieSession, timeout(5000)).signalEvent("mySignal", "first", 1L);
+        verify(kieSession, timeout(5000)).signalEvent("mySignal", "second", 2L);
+        verify(consumer, timeout(5000)).commitSync(offset(2));
+    }
+
+    @Test
+    public void testBroadcastSignal() {
+        pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, null, "event"));
+
+        startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+        verify(kieSession, timeout(5000)).signalEvent("mySignal", "event");
+        verify(consumer, timeout(5000)).commitSync(offset(1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStartProcesses() {
+        pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, "1", "first"));
+
+        startConsumer(KafkaSignalConsumer.Mode.START, "myProcess");
+
+        verify(kieSession, timeout(5000)).startProcess(eq("myProcess"), any(Map.class));
+        verify(consumer, timeout(5000)).commitSync(offset(1));
+    }
+
+    @Test
+    public void testOffsetsNotCommittedWhenEngineRejects() {
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms", "0");
+        try {
+            doThrow(new RuntimeException("rejected")).when(kieSession).signalEvent(anyString(), any(), anyLong());
+            pollOnce(new ConsumerRecord<>(TOPIC, 0, 5, "1", "first"));
+
+            startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+            verify(consumer, timeout(5000)).seek(PARTITION, 5);
+            verify(consumer, never()).commitSync(anyMap());
+        } finally {
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms");
+        }
+    }
+
+    @Test
+    public void testRecordsBeforeRejectedRecordAreCommitted() {
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms", "0");
+        try {
+            doThrow(new RuntimeException("rejected")).when(kieSession).signalEvent("mySignal", "second", 2L);
+            pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, "1", "first"),
+                     new ConsumerRecord<>(TOPIC, 0, 1, "2", "second"));
+
+            startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+            verify(consumer, timeout(5000)).seek(PARTITION, 1);
+            verify(consumer, timeout(5000)).commitSync(offset(1));
+        } finally {
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms");
+        }
+    }
+
+    @Test
+    public void testPoisonRecordIsSkipped() {
+        pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, "not-an-id", "first"),
+                 new ConsumerRecord<>(TOPIC, 0, 1, "2", "second"));
+
+        startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+        verify(kieSession, timeout(5000)).signalEvent("mySignal", "second", 2L);
+        verify(consumer, timeout(5000)).commitSync(offset(2));
+        verify(consumer, never()).seek(any(TopicPartition.class), anyLong());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRecordIsSkippedAfterRetries() {
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms", "0");
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retries", "1");
+        try {
+            doThrow(new RuntimeException("rejected")).when(kieSession).signalEvent(anyString(), any(), anyLong());
+            ConsumerRecords<Object, Object> batch = new ConsumerRecords<>(Collections.singletonMap(PARTITION,
+                                                                                                   Collections.singletonList(new ConsumerRecord<>(TOPIC, 0, 5, "1", "first"))));
+            when(consumer.poll(any(Duration.class)))
+                    .thenReturn(batch)
+                    .thenReturn(batch)
+                    .thenReturn(ConsumerRecords.empty());
+
+            startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+            verify(consumer, timeout(5000)).commitSync(offset(6));
+            verify(consumer).seek(PARTITION, 5);
+        } finally {
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms");
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retries");
+        }
+    }
+
+    @Test
+    public void testRecordsOfAProcessInstanceShareAnEngine() {
+        pollOnce(new ConsumerRecord<>(TOPIC, 0, 0, "1", "first"),
+                 new ConsumerRecord<>(TOPIC, 0, 1, "2", "second"),
+                 new ConsumerRecord<>(TOPIC, 0, 2, "1", "third"));
+
+        startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+        verify(consumer, timeout(5000)).commitSync(offset(3));
+        verify(kieSession).signalEvent("mySignal", "first", 1L);
+        verify(kieSession).signalEvent("mySignal", "third", 1L);
+        verify(kieSession).signalEvent("mySignal", "second", 2L);
+        verify(runtimeManager, times(2)).getRuntimeEngine(any(Context.class));
+        verify(runtimeManager, times(2)).disposeRuntimeEngine(any(RuntimeEngine.class));
+    }
+
+    @Test
+    public void testIllegalArgumentFromTheEngineIsRetried() {
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms", "0");
+        try {
+            doThrow(new IllegalArgumentException("deployment not available")).when(kieSession).signalEvent(anyString(), any(), anyLong());
+            pollOnce(new ConsumerRecord<>(TOPIC, 0, 5, "1", "first"));
+
+            startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+            verify(consumer, timeout(5000)).seek(PARTITION, 5);
+            verify(consumer, never()).commitSync(anyMap());
+        } finally {
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms");
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRecordsDispatchedBeforeTheRewindAreNotReplayed() {
+        System.setProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms", "0");
+        try {
+            doThrow(new RuntimeException("rejected")).doNothing().when(kieSession).signalEvent("mySignal", "second", 2L);
+            ConsumerRecord<Object, Object> second = new ConsumerRecord<>(TOPIC, 0, 1, "2", "second");
+            ConsumerRecord<Object, Object> third = new ConsumerRecord<>(TOPIC, 0, 2, "1", "third");
+            when(consumer.poll(any(Duration.class)))
+                    .thenReturn(new ConsumerRecords<>(Collections.singletonMap(PARTITION,
+                                                                               Arrays.asList(new ConsumerRecord<>(TOPIC, 0, 0, "1", "first"), second, third))))
+                    .thenReturn(new ConsumerRecords<>(Collections.singletonMap(PARTITION,
+                                                                               Arrays.asList(second, third))))
+                    .thenReturn(ConsumerRecords.empty());
+
+            startConsumer(KafkaSignalConsumer.Mode.SIGNAL, "mySignal");
+
+            verify(consumer, timeout(5000)).commitSync(offset(3));
+            verify(consumer).seek(PARTITION, 1);
+            verify(consumer).commitSync(offset(1));
+            verify(kieSession, times(2)).signalEvent("mySignal", "second", 2L);
+            verify(kieSession).signalEvent("mySignal", "third", 1L);
+        } finally {
+            System.clearProperty("org.jbpm.process.workitem.kafka.consumer.retry.backoff.ms");
+        }
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> offset(long offset) {
+        return Collections.singletonMap(PARTITION, new OffsetAndMetadata(offset));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pollOnce(ConsumerRecord<Object, Object>... records) {
+        List<ConsumerRecord<Object, Object>> batch = Arrays.asList(records);
+        when(consumer.poll(any(Duration.class)))
+                .thenReturn(new ConsumerRecords<>(Collections.singletonMap(PARTITION, batch)))
+                .thenReturn(ConsumerRecords.empty());
+    }
+
+    private void startConsumer(KafkaSignalConsumer.Mode mode, String target) {
+        signalConsumer = new KafkaSignalConsumer(runtimeManager,
+                                                 mode,
+                                                 target,
+                                                 Collections.singletonList(TOPIC),
+                                                 1,
+                                                 () -> consumer);
+        signalConsumer.start();
+    }
+}
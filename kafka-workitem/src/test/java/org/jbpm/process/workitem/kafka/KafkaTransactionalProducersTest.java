@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.kafka;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KafkaTransactionalProducersTest {
+
+    private MockProducer<String, String> first;
+    private MockProducer<String, String> second;
+    private KafkaTransactionalProducers producers;
+
+    @Before
+    public void init() {
+        first = producer();
+        second = producer();
+        producers = new KafkaTransactionalProducers(Arrays.asList(KafkaProducerRegistry.register(config("0"), first),
+                                                                  KafkaProducerRegistry.register(config("1"), second)),
+                                                    100);
+    }
+
+    @After
+    public void cleanup() {
+        producers.release();
+    }
+
+    @Test
+    public void testConcurrentTransactionsLeaseDistinctProducers() {
+        KafkaProducerRegistry.Fingerprint leased = producers.lease();
+        KafkaProducerRegistry.Fingerprint other = producers.lease();
+        assertNotEquals(leased, other);
+
+        producers.giveBack(leased);
+        assertEquals(leased, producers.lease());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLeaseTimesOutWhenAllProducersPublish() {
+        producers.lease();
+        producers.lease();
+        producers.lease();
+    }
+
+    @Test
+    public void testProducerGivenBackAfterPublish() {
+        KafkaTransactionSynchronization synchronization = new KafkaTransactionSynchronization(producers);
+        synchronization.add(new ProducerRecord<>("myTopic", "key", "value"));
+        synchronization.publish();
+
+        assertEquals(1, first.history().size() + second.history().size());
+        assertTrue(first.transactionCommitted() || second.transactionCommitted());
+        // both producers are idle again
+        producers.lease();
+        producers.lease();
+    }
+
+    private MockProducer<String, String> producer() {
+        MockProducer<String, String> producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        producer.initTransactions();
+        return producer;
+    }
+
+    private Properties config(String suffix) {
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "jbpm-pool-test-" + suffix);
+        return properties;
+    }
+}
@@ -15,15 +15,19 @@
  */
 package org.jbpm.process.workitem.kafka;
 
+import java.lang.management.ManagementFactory;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.ObjectName;
+
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.MockProducer;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.RecordMetadata;
 import org.apache.kafka.clients.producer.internals.DefaultPartitioner;
 import org.apache.kafka.common.Cluster;
@@ -32,6 +36,8 @@ import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.serialization.IntegerSerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
 import org.jbpm.bpmn2.handler.WorkItemHandlerRuntimeException;
 import org.jbpm.process.workitem.core.TestWorkItemManager;
 import org.junit.After;
@@ -39,15 +45,29 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.mockito.ArgumentCaptor;
 import org.kie.api.executor.Executor;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.Context;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.manager.InternalRuntimeManager;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptySet;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class KafkaWorkItemHandlerTest {
@@ -60,6 +80,8 @@ public class KafkaWorkItemHandlerTest {
     private static final String KEY = "1";
     private static final String VALUE = "Sample";
 
+    private static final String CALLBACK_COMPLETION_PROPERTY = "org.jbpm.process.workitem.kafka.callback.completion";
+
     @Rule
     public final ExpectedException exception = ExpectedException.none();
     
@@ -68,6 +90,7 @@ public class KafkaWorkItemHandlerTest {
     private KafkaWorkItemHandler handler;
     private MockProducer<String, String> mockProducerString;
     private MockProducer<Integer, Integer> mockProducerInteger;
+    private TransactionManager transactionManager;
 
     @Before
     public void init() {
@@ -78,6 +101,7 @@ public class KafkaWorkItemHandlerTest {
 
     @After
     public void cleanup() {
+        System.clearProperty(CALLBACK_COMPLETION_PROPERTY);
         if (mockProducerString != null)
             mockProducerString.close();
         if (mockProducerInteger != null)
@@ -168,8 +192,143 @@ public class KafkaWorkItemHandlerTest {
         assertExceptionAfterExecuteWorkItem(workItem);
     }
 
+    @Test
+    public void testMetricsRecordedOnSend() throws Exception {
+        assertResultSuccessAfterExecuteWorkItem();
+
+        KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(new Properties());
+        assertEquals(1, metrics.getSentCount());
+        assertEquals(0, metrics.getErrorCount());
+        assertTrue(metrics.getAverageAckLatencyMs() <= metrics.getMaxAckLatencyMs());
+        assertNotNull(metrics.getProducerMetrics());
+        assertFalse(ManagementFactory.getPlatformMBeanServer()
+                            .queryNames(new ObjectName("org.jbpm.process.workitem.kafka:type=KafkaProducer,*"), null)
+                            .isEmpty());
+    }
+
+    @Test
+    public void testMetricsRecordedOnSendError() throws Exception {
+        buildKafkaWIH(false);
+        sendErrorLater(100);
+        try {
+            handler.executeWorkItem(workItem, manager);
+        } catch (WorkItemHandlerRuntimeException e) {
+            // expected
+        }
+
+        KafkaProducerMetrics metrics = KafkaProducerRegistry.getMetrics(new Properties());
+        assertEquals(0, metrics.getSentCount());
+        assertEquals(1, metrics.getErrorCount());
+    }
+
+    @Test
+    public void testCallbackCompletion() throws Exception {
+        WorkItemManager callbackManager = buildKafkaWIHWithCallbackCompletion(true);
+
+        handler.executeWorkItem(workItem, manager);
+
+        verify(callbackManager, timeout(5000)).completeWorkItem(eq(workItem.getId()), anyMap());
+        assertWorkItemResults(0);
+        handler.close();
+    }
+
+    @Test
+    public void testCallbackCompletionAbortsOnSendError() throws Exception {
+        WorkItemManager callbackManager = buildKafkaWIHWithCallbackCompletion(false);
+
+        handler.executeWorkItem(workItem, manager);
+        mockProducerString.errorNext(new RuntimeException("Error during send"));
+
+        verify(callbackManager, timeout(5000)).abortWorkItem(workItem.getId());
+        verify(callbackManager, never()).completeWorkItem(eq(workItem.getId()), anyMap());
+        handler.close();
+    }
+
+    @Test
+    public void testCloseCompletesRecordsInFlight() throws Exception {
+        WorkItemManager callbackManager = buildKafkaWIHWithCallbackCompletion(false);
+        // another handler keeps the shared producer open
+        KafkaProducerRegistry.register(new Properties(), mockProducerString);
+
+        handler.executeWorkItem(workItem, manager);
+        // the record is not acknowledged yet, closing flushes it
+        handler.close();
+
+        verify(callbackManager).completeWorkItem(eq(workItem.getId()), anyMap());
+        KafkaProducerRegistry.release(new KafkaProducerRegistry.Fingerprint(new Properties()));
+    }
+
+    @Test
+    public void testCallbackCompletionWaitsForCommit() throws Exception {
+        WorkItemManager callbackManager = buildKafkaWIHWithCallbackCompletion(true, TransactionManager.STATUS_ACTIVE);
+
+        handler.executeWorkItem(workItem, manager);
+
+        // acknowledged by the broker but the work item is not persisted yet
+        verify(callbackManager, after(500).never()).completeWorkItem(eq(workItem.getId()), anyMap());
+
+        captureSynchronization(transactionManager).afterCompletion(TransactionManager.STATUS_COMMITTED);
+        verify(callbackManager, timeout(5000)).completeWorkItem(eq(workItem.getId()), anyMap());
+        handler.close();
+    }
+
+    @Test
+    public void testCallbackCompletionDroppedOnRollback() throws Exception {
+        WorkItemManager callbackManager = buildKafkaWIHWithCallbackCompletion(true, TransactionManager.STATUS_ACTIVE);
+
+        handler.executeWorkItem(workItem, manager);
+        captureSynchronization(transactionManager).afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+
+        verify(callbackManager, after(500).never()).completeWorkItem(eq(workItem.getId()), anyMap());
+        verify(callbackManager, never()).abortWorkItem(workItem.getId());
+        handler.close();
+    }
+
+    @Test
+    public void testTransactionalSendPublishedOnCommit() throws Exception {
+        TransactionManager transactionManager = buildKafkaWIHTransactional();
+
+        handler.executeWorkItem(workItem, manager);
+
+        assertWorkItemResults(1);
+        assertTrue(mockProducerString.history().isEmpty());
+
+        TransactionSynchronization synchronization = captureSynchronization(transactionManager);
+        synchronization.beforeCompletion();
+        synchronization.afterCompletion(TransactionManager.STATUS_COMMITTED);
+
+        assertEquals(1, mockProducerString.history().size());
+        assertTrue(mockProducerString.transactionCommitted());
+    }
+
+    @Test
+    public void testTransactionalSendDiscardedOnRollback() throws Exception {
+        TransactionManager transactionManager = buildKafkaWIHTransactional();
+
+        handler.executeWorkItem(workItem, manager);
+
+        TransactionSynchronization synchronization = captureSynchronization(transactionManager);
+        synchronization.afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+
+        assertTrue(mockProducerString.history().isEmpty());
+        assertFalse(mockProducerString.transactionInFlight());
+        assertFalse(mockProducerString.transactionCommitted());
+    }
+
+    @Test
+    public void testTransactionalSendWithoutActiveTransaction() throws Exception {
+        TransactionManager transactionManager = buildKafkaWIHTransactional();
+        when(transactionManager.getStatus()).thenReturn(TransactionManager.STATUS_NO_TRANSACTION);
+
+        assertResultSuccessAfterExecuteWorkItem();
+        assertEquals(1, mockProducerString.history().size());
+        assertTrue(mockProducerString.transactionCommitted());
+    }
+
     private void initWorkItem() {
         workItem = new WorkItemImpl();
+        workItem.setId(1L);
+        workItem.setProcessInstanceId(1L);
         workItem.setParameter(TOPIC_FIELD, TOPIC);
         workItem.setParameter(KEY_FIELD, KEY);
         workItem.setParameter(VALUE_FIELD, VALUE);
@@ -182,6 +341,51 @@ public class KafkaWorkItemHandlerTest {
         handler = new KafkaWorkItemHandler(new Properties(), mockProducerString);
     }
     
+    private WorkItemManager buildKafkaWIHWithCallbackCompletion(boolean autocomplete) {
+        return buildKafkaWIHWithCallbackCompletion(autocomplete, TransactionManager.STATUS_NO_TRANSACTION);
+    }
+
+    private WorkItemManager buildKafkaWIHWithCallbackCompletion(boolean autocomplete, int transactionStatus) {
+        WorkItemManager callbackManager = mock(WorkItemManager.class);
+        KieSession kieSession = mock(KieSession.class);
+        when(kieSession.getWorkItemManager()).thenReturn(callbackManager);
+        RuntimeEngine engine = mock(RuntimeEngine.class);
+        when(engine.getKieSession()).thenReturn(kieSession);
+        InternalRuntimeManager runtimeManager = mock(InternalRuntimeManager.class);
+        when(runtimeManager.getRuntimeEngine(any(Context.class))).thenReturn(engine);
+
+        System.setProperty(CALLBACK_COMPLETION_PROPERTY, "true");
+        mockProducerString = new MockProducer<>(autocomplete,
+                                                new StringSerializer(),
+                                                new StringSerializer());
+        handler = new KafkaWorkItemHandler(new Properties(), mockProducerString, runtimeManager);
+        transactionManager = mock(TransactionManager.class);
+        when(transactionManager.getStatus()).thenReturn(transactionStatus);
+        handler.setTransactionManager(transactionManager);
+        return callbackManager;
+    }
+
+    private TransactionManager buildKafkaWIHTransactional() {
+        TransactionManager transactionManager = mock(TransactionManager.class);
+        when(transactionManager.getStatus()).thenReturn(TransactionManager.STATUS_ACTIVE);
+
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "jbpm-test");
+        mockProducerString = new MockProducer<>(true,
+                                                new StringSerializer(),
+                                                new StringSerializer());
+        mockProducerString.initTransactions();
+        handler = new KafkaWorkItemHandler(properties, mockProducerString);
+        handler.setTransactionManager(transactionManager);
+        return transactionManager;
+    }
+
+    private TransactionSynchronization captureSynchronization(TransactionManager transactionManager) {
+        ArgumentCaptor<TransactionSynchronization> captor = ArgumentCaptor.forClass(TransactionSynchronization.class);
+        verify(transactionManager).registerTransactionSynchronization(captor.capture());
+        return captor.getValue();
+    }
+
     private void buildKafkaWIHInteger(boolean autocomplete) {
         //MockProducer only invokes serialize if partition was defined -needed for cast exceptions during incorrect type tests
         PartitionInfo partitionInfo = new PartitionInfo(TOPIC, 0, null, null, null);
@@ -26,4 +26,27 @@ public class Constant {
     public static final String CANCEL_URL_JSON_POINTER_VARIABLE = "cancelUrlJsonPointer";
 
     public static final String CANCEL_URL_TEMPLATE_VARIABLE = "cancelUrlTemplate";
+
+    /**
+     * Maximum number of pooled http connections, unlimited by default.
+     */
+    public static final String HTTP_MAX_CONNECTIONS = "org.jbpm.process.longrest.http.maxConnections";
+
+    /**
+     * Maximum number of pooled http connections to the same host, defaults to the maximum number of connections.
+     * Requests waiting for a connection longer than their connectionRequestTimeout fail.
+     */
+    public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "org.jbpm.process.longrest.http.maxConnectionsPerRoute";
+
+    public static final String HTTP_KEEP_ALIVE_MS = "org.jbpm.process.longrest.http.keepAliveMs";
+
+    public static final String HTTP_ASYNC = "org.jbpm.process.longrest.http.async";
+
+    public static final String HTTP_ASYNC_COMPLETION_THREADS = "org.jbpm.process.longrest.http.asyncCompletionThreads";
+
+    /**
+     * Maximum size in bytes of a response, unlimited by default. Larger responses fail the invocation
+     * with a ResponseProcessingException.
+     */
+    public static final String HTTP_MAX_RESPONSE_SIZE = "org.jbpm.process.longrest.http.maxResponseSize";
 }
@@ -16,32 +16,54 @@
 package org.jbpm.process.longrest;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpCookie;
 import java.text.MessageFormat;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.JsonNodeType;
+import org.apache.http.ContentTooLongException;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionManagerFactory;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.jbpm.process.longrest.util.JsonStreamReader;
 import org.jbpm.process.longrest.util.Mapper;
 import org.jbpm.process.longrest.util.ProcessUtils;
 import org.jbpm.process.longrest.util.Strings;
+import org.jbpm.process.longrest.util.TemplateCache;
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
 import org.jbpm.process.workitem.core.util.Wid;
@@ -51,11 +73,16 @@ import org.jbpm.process.workitem.core.util.WidResult;
 import org.jbpm.process.workitem.core.util.service.WidAction;
 import org.jbpm.process.workitem.core.util.service.WidAuth;
 import org.jbpm.process.workitem.core.util.service.WidService;
+import org.kie.api.command.ExecutableCommand;
 import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
 import org.kie.api.runtime.manager.RuntimeManager;
 import org.kie.api.runtime.process.WorkItem;
 import org.kie.api.runtime.process.WorkItemManager;
 import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.kie.internal.command.RegistryContext;
+import org.kie.internal.runtime.Cacheable;
+import org.kie.internal.runtime.manager.context.ProcessInstanceIdContext;
 import org.mvel2.MVEL;
 import org.mvel2.ParserContext;
 import org.mvel2.integration.VariableResolverFactory;
@@ -65,8 +92,6 @@ import org.mvel2.templates.TemplateRuntime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.mvel2.templates.TemplateCompiler.compileTemplate;
-
 @Wid(widfile = "LongRunningRestService.wid",
         name = "LongRunningRestService",
         displayName = "LongRunningRestService",
@@ -99,7 +124,7 @@ import static org.mvel2.templates.TemplateCompiler.compileTemplate;
                 authinfo = @WidAuth(required = true, params = {"url"})
         )
 )
-public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWorkItemHandler {
+public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWorkItemHandler implements Cacheable {
 
     private static final Logger logger = LoggerFactory.getLogger(LongRunningRestServiceWorkItemHandler.class);
 
@@ -110,12 +135,40 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
 
     private final RuntimeManager runtimeManager;
 
+    /**
+     * Shared by all the invocations of the handler, so connections are kept alive and reused.
+     * Timeouts are set per request from the work item parameters.
+     */
+    private final CloseableHttpClient httpClient;
+
+    private final long maxResponseSize = Long.getLong(Constant.HTTP_MAX_RESPONSE_SIZE, -1L);
+
+    private final JsonStreamReader responseReader = new JsonStreamReader(maxResponseSize);
+
+    /**
+     * Non-blocking client used instead of {@link #httpClient} when the async mode is enabled,
+     * the work item is then completed from the response callback and the engine thread is released
+     * as soon as the request is sent.
+     */
+    private CloseableHttpAsyncClient asyncHttpClient;
+
+    /**
+     * Completes the work items of the async responses, so the engine is not invoked from the I/O dispatch threads.
+     */
+    private ExecutorService asyncCompletionExecutor;
+
+    private TransactionManager transactionManager;
+
     ParserContext mvelContext = new ParserContext();
 
     public LongRunningRestServiceWorkItemHandler(RuntimeManager runtimeManager) {
         this.runtimeManager = runtimeManager;
         logger.debug("Constructing with runtimeManager ...");
         initializeMvelContext();
+        httpClient = createHttpClient();
+        if (Boolean.getBoolean(Constant.HTTP_ASYNC)) {
+            initializeAsyncHttpClient();
+        }
         setLogThrownException(false);
     }
 
@@ -123,9 +176,63 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
         logger.debug("Constructing without runtimeManager ...");
         runtimeManager = null;
         initializeMvelContext();
+        httpClient = createHttpClient();
         setLogThrownException(false);
     }
 
+    private CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+        long keepAliveMs = Long.getLong(Constant.HTTP_KEEP_ALIVE_MS, 30000L);
+        return HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, keepAliveMs) : keepAliveMs;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMs, TimeUnit.MILLISECONDS)
+                // cookies are kept per process instance, see storeCookies
+                .disableCookieManagement()
+                .build();
+    }
+
+    static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+        return connectionManager;
+    }
+
+    /*
+     * Each request used to get its own client, so by default the pool does not limit the concurrent requests either,
+     * otherwise requests waiting for a connection fail with a ConnectionPoolTimeoutException after the
+     * connectionRequestTimeout of the work item.
+     */
+    private static int getMaxConnections() {
+        return Integer.getInteger(Constant.HTTP_MAX_CONNECTIONS, Integer.MAX_VALUE);
+    }
+
+    private static int getMaxConnectionsPerRoute() {
+        return Integer.getInteger(Constant.HTTP_MAX_CONNECTIONS_PER_ROUTE, getMaxConnections());
+    }
+
+    private void initializeAsyncHttpClient() {
+        long keepAliveMs = Long.getLong(Constant.HTTP_KEEP_ALIVE_MS, 30000L);
+        asyncHttpClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(getMaxConnections())
+                .setMaxConnPerRoute(getMaxConnectionsPerRoute())
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, keepAliveMs) : keepAliveMs;
+                })
+                .disableCookieManagement()
+                .build();
+        asyncHttpClient.start();
+        asyncCompletionExecutor = Executors.newFixedThreadPool(
+                Integer.getInteger(Constant.HTTP_ASYNC_COMPLETION_THREADS, Runtime.getRuntime().availableProcessors()));
+        logger.debug("Async http client started.");
+    }
+
     private void initializeMvelContext() {
         mvelContext.addImport(
                 "quote",
@@ -210,7 +317,7 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
 
         String requestBodyEvaluated;
         if (requestTemplate != null && !requestTemplate.equals("")) {
-            CompiledTemplate compiled = compileTemplate(requestTemplate, mvelContext);
+            CompiledTemplate compiled = TemplateCache.getInstance().get(requestTemplate, mvelContext);
             requestBodyEvaluated = (String) TemplateRuntime.execute(compiled, mvelContext, variableResolverFactory);
         } else {
             requestBodyEvaluated = "";
@@ -226,7 +333,7 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
             requestHeadersMap.put("Cookie", cookieHeader);
         }
         requestHeadersMap.putAll(Strings.toMap(requestHeaders));
-        HttpResponse httpResponse = httpRequest(
+        HttpUriRequest request = buildRequest(
                 requestUrl,
                 requestBodyEvaluated,
                 httpMethod,
@@ -235,6 +342,181 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
                 connectTimeout,
                 connectionRequestTimeout);
 
+        if (asyncHttpClient != null) {
+            long processInstanceId = processInstance.getId();
+            // the response completes the work item in a transaction of its own, so it must not race the one that created it
+            afterCommit(processInstanceId, () -> invokeRemoteServiceAsync(
+                    request,
+                    processInstanceId,
+                    workItemId,
+                    containerId,
+                    cancelUrlJsonPointer,
+                    cancelUrlTemplate));
+            return;
+        }
+
+        HttpResponse httpResponse = httpRequest(request);
+        try {
+            processResponse(
+                    httpResponse,
+                    processInstance,
+                    manager,
+                    workItemId,
+                    cancelUrlJsonPointer,
+                    cancelUrlTemplate,
+                    variableResolverFactory);
+        } finally {
+            // release the connection back to the pool
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+        }
+    }
+
+    private void invokeRemoteServiceAsync(
+            HttpUriRequest request,
+            long processInstanceId,
+            long workItemId,
+            String containerId,
+            String cancelUrlJsonPointer,
+            String cancelUrlTemplate) {
+        FutureCallback<HttpResponse> callback = new FutureCallback<HttpResponse>() {
+
+            @Override
+            public void completed(HttpResponse httpResponse) {
+                completeAsync(processInstanceId, (kieSession, processInstance) -> {
+                    try {
+                        // the resolver reads the process instance loaded by the completion command, never the one of the request
+                        processResponse(
+                                httpResponse,
+                                processInstance,
+                                kieSession.getWorkItemManager(),
+                                workItemId,
+                                cancelUrlJsonPointer,
+                                cancelUrlTemplate,
+                                getVariableResolverFactory(processInstance, containerId));
+                    } catch (RemoteInvocationException e) {
+                        String message = MessageFormat.format("Failed to invoke remote service. ProcessInstanceId {0}.", processInstanceId);
+                        logger.warn(message, e);
+                        completeWorkItem(kieSession.getWorkItemManager(), workItemId, e);
+                    } catch (ResponseProcessingException e) {
+                        String message = MessageFormat.format("Failed to process response. ProcessInstanceId {0}.", processInstanceId);
+                        logger.warn(message, e);
+                        completeWorkItem(kieSession.getWorkItemManager(), workItemId, e);
+                    } finally {
+                        EntityUtils.consumeQuietly(httpResponse.getEntity());
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Exception e) {
+                Exception cause;
+                if (e instanceof ContentTooLongException) {
+                    String message = MessageFormat.format("Failed to process response. ProcessInstanceId {0}.", processInstanceId);
+                    logger.warn(message, e);
+                    cause = new ResponseProcessingException(e.getMessage(), e);
+                } else {
+                    String message = MessageFormat.format("Failed to invoke remote service. ProcessInstanceId {0}.", processInstanceId);
+                    logger.warn(message, e);
+                    cause = new RemoteInvocationException("Unable to invoke remote endpoint.", e);
+                }
+                completeAsync(processInstanceId, (kieSession, processInstance) -> completeWorkItem(
+                        kieSession.getWorkItemManager(),
+                        workItemId,
+                        cause));
+            }
+
+            @Override
+            public void cancelled() {
+                completeAsync(processInstanceId, (kieSession, processInstance) -> completeWorkItem(
+                        kieSession.getWorkItemManager(),
+                        workItemId,
+                        new RemoteInvocationException("Remote invocation cancelled.")));
+            }
+        };
+        try {
+            asyncHttpClient.execute(
+                    HttpAsyncMethods.create(request),
+                    new LimitedResponseConsumer(maxResponseSize),
+                    callback);
+        } catch (RuntimeException e) {
+            // eg. the client was closed meanwhile
+            callback.failed(e);
+        }
+    }
+
+    /**
+     * Runs the action once the current transaction commits, or right away when there is no transaction.
+     * Nothing runs when the transaction rolls back.
+     */
+    private void afterCommit(long processInstanceId, Runnable action) {
+        TransactionManager tm = getTransactionManager();
+        if (tm.getStatus() != TransactionManager.STATUS_ACTIVE) {
+            action.run();
+            return;
+        }
+        tm.registerTransactionSynchronization(new TransactionSynchronization() {
+
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == TransactionManager.STATUS_COMMITTED) {
+                    action.run();
+                } else {
+                    logger.debug("Transaction of ProcessInstanceId {} rolled back, remote service is not invoked.", processInstanceId);
+                }
+            }
+        });
+    }
+
+    protected TransactionManager getTransactionManager() {
+        if (transactionManager == null) {
+            transactionManager = TransactionManagerFactory.get().newTransactionManager();
+        }
+        return transactionManager;
+    }
+
+    /**
+     * Runs the completion of an async invocation in a single engine command, so the process variables
+     * (eg. cookies) and the work item completion are stored in the same transaction.
+     */
+    private void completeAsync(long processInstanceId, BiConsumer<KieSession, WorkflowProcessInstance> completion) {
+        try {
+            asyncCompletionExecutor.execute(() -> {
+                // the completion thread has no engine scope, the engine is disposed here
+                RuntimeEngine engine = null;
+                try {
+                    engine = runtimeManager.getRuntimeEngine(ProcessInstanceIdContext.get(processInstanceId));
+                    engine.getKieSession().execute((ExecutableCommand<Void>) context -> {
+                        KieSession commandKieSession = ((RegistryContext) context).lookup(KieSession.class);
+                        completion.accept(
+                                commandKieSession,
+                                (WorkflowProcessInstance) commandKieSession.getProcessInstance(processInstanceId));
+                        return null;
+                    });
+                } catch (Throwable cause) {
+                    logger.error("Failed to complete async invocation of ProcessInstanceId {}.", processInstanceId, cause);
+                } finally {
+                    if (engine != null) {
+                        runtimeManager.disposeRuntimeEngine(engine);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Handler closed, async invocation of ProcessInstanceId {} is not completed.", processInstanceId);
+        }
+    }
+
+    private void processResponse(
+            HttpResponse httpResponse,
+            WorkflowProcessInstance processInstance,
+            WorkItemManager manager,
+            long workItemId,
+            String cancelUrlJsonPointer,
+            String cancelUrlTemplate,
+            VariableResolverFactory variableResolverFactory) throws RemoteInvocationException, ResponseProcessingException {
         int statusCode = httpResponse.getStatusLine().getStatusCode();
         logger.info("Remote endpoint returned status: {}.", statusCode);
 
@@ -246,50 +528,38 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
         storeCookies(httpResponse, processInstance);
 
         HttpEntity responseEntity = httpResponse.getEntity();
-        if (statusCode == 204 || responseEntity.getContentLength() == 0L) {
+        if (statusCode == 204 || responseEntity == null || responseEntity.getContentLength() == 0L) {
             completeWorkItem(manager, workItemId, statusCode, Collections.emptyMap(), "");
         } else {
-            String responseString;
-            try {
-                responseString = EntityUtils.toString(responseEntity, "UTF-8");
-                logger.debug("Invocation response: {}", responseString);
-            } catch (IOException e) {
-                throw new ResponseProcessingException("Cannot read remote entity.", e);
+            long contentLength = responseEntity.getContentLength();
+            if (maxResponseSize > 0 && contentLength > maxResponseSize) {
+                String message = MessageFormat.format("Service invocation response of {0} bytes exceeds the maximum allowed size of {1} bytes set by " + Constant.HTTP_MAX_RESPONSE_SIZE + ". ProcessInstanceId {2}.",
+                                                      contentLength, maxResponseSize, processInstance.getId());
+                throw new ResponseProcessingException(message);
             }
-            JsonNode root;
-            Map<String, Object> serviceInvocationResponse;
-            try {
-                root = Mapper.getInstance().readTree(responseString);
-                if (JsonNodeType.ARRAY.equals(root.getNodeType())) {
-                    //convert array to indexed map
-                    serviceInvocationResponse = new LinkedHashMap<>();
-                    Object[] array = Mapper.getInstance().convertValue(root, new TypeReference<Object[]>() {
-                    });
-                    for (int i = 0; i < array.length; i++) {
-                        serviceInvocationResponse.put(Integer.toString(i), array[i]);
-                    }
-                } else {
-                    serviceInvocationResponse = Mapper.getInstance()
-                            .convertValue(root, new TypeReference<Map<String, Object>>() {
-                            });
-                }
+            boolean cancelUrlFromPointer = Strings.isEmpty(cancelUrlTemplate) && !Strings.isEmpty(cancelUrlJsonPointer);
+            JsonStreamReader.Result response;
+            try (InputStream content = responseEntity.getContent()) {
+                //parsed straight from the stream, the cancel url pointer is evaluated in the same pass
+                response = responseReader.read(content, cancelUrlFromPointer ? cancelUrlJsonPointer : null);
             } catch (Exception e) {
                 String message = MessageFormat.format("Cannot parse service invocation response. ProcessInstanceId {0}.",
                                                       processInstance.getId());
                 throw new ResponseProcessingException(message, e);
             }
+            Map<String, Object> serviceInvocationResponse = response.getContent();
+            logger.debug("Invocation response: {}", serviceInvocationResponse);
             String cancelUrl = "";
             try {
                 if (!Strings.isEmpty(cancelUrlTemplate)) {
                     logger.debug("Setting cancel url from template: {}.", cancelUrlTemplate);
-                    CompiledTemplate compiled = compileTemplate(cancelUrlTemplate);
+                    CompiledTemplate compiled = TemplateCache.getInstance().get(cancelUrlTemplate);
                     cancelUrl = (String) TemplateRuntime
                             .execute(compiled, null, variableResolverFactory);
-                } else if (!Strings.isEmpty(cancelUrlJsonPointer)) {
+                } else if (cancelUrlFromPointer) {
                     logger.debug("Setting cancel url from json pointer: {}.", cancelUrlJsonPointer);
-                    JsonNode cancelUrlNode = root.at(cancelUrlJsonPointer);
-                    if (!cancelUrlNode.isMissingNode()) {
-                        cancelUrl = cancelUrlNode.asText();
+                    if (response.getPointerValue() != null) {
+                        cancelUrl = response.getPointerValue();
                     }
                 }
                 logger.debug("Cancel url: {}.", cancelUrl);
@@ -335,52 +605,31 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
         VariableResolverFactory variableResolverFactory = new MapVariableResolverFactory(
                 Collections.singletonMap("system", systemVariables));
 
-        VariableResolverFactory resolver = variableResolverFactory.setNextFactory(
-                new ProcessVariableResolverFactory(processInstance));
-
-        WorkflowProcessInstance currentInstance = processInstance;
-        //add all parent instances to resolver chain
-        int maxDepth = 100;
-        int depth = 0;
-        while (true) {
-            depth++;
-            if (depth > maxDepth) {  //circuit-breaker: allow only maxDepth nested process instances
-                throw new RuntimeException("To many nested process instances, allowed only up to " + maxDepth + ".");
-            }
-            long parentProcessInstanceId = currentInstance.getParentProcessInstanceId();
-            if (parentProcessInstanceId > 0) {
-                WorkflowProcessInstance parentProcessInstance = ProcessUtils.getProcessInstance(
-                        runtimeManager, parentProcessInstanceId);
-                resolver.setNextFactory(new ProcessVariableResolverFactory(parentProcessInstance));
-                currentInstance = parentProcessInstance;
-            } else {
-                //top parent reached
-                break;
-            }
-        }
+        //parent instances are added to the resolver chain lazily, only when a variable is not found in the child
+        variableResolverFactory.setNextFactory(new ProcessVariableResolverFactory(
+                processInstance,
+                parentProcessInstanceId -> ProcessUtils.getProcessInstance(runtimeManager, parentProcessInstanceId),
+                100));
         return variableResolverFactory;
     }
 
-    private HttpResponse httpRequest(
+    private HttpUriRequest buildRequest(
             String url,
             String jsonContent,
             String httpMethod,
             Map<String, String> requestHeaders,
             int socketTimeout,
             int connectTimeout,
-            int connectionRequestTimeout) throws RemoteInvocationException {
+            int connectionRequestTimeout) {
         RequestConfig config = RequestConfig.custom()
                 .setSocketTimeout(socketTimeout)
                 .setConnectTimeout(connectTimeout)
                 .setConnectionRequestTimeout(connectionRequestTimeout)
                 .build();
 
-        HttpClientBuilder clientBuilder = HttpClientBuilder.create()
-                .setDefaultRequestConfig(config);
-
-        HttpClient httpClient = clientBuilder.build();
-
-        RequestBuilder requestBuilder = RequestBuilder.create(httpMethod).setUri(url);
+        RequestBuilder requestBuilder = RequestBuilder.create(httpMethod)
+                .setUri(url)
+                .setConfig(config);
 
         if (requestHeaders != null) {
             requestHeaders.forEach((k, v) -> requestBuilder.addHeader(k, v));
@@ -393,10 +642,13 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
         }
 
         logger.info("Invoking remote endpoint {} {} Headers: {} Body: {}.", httpMethod, url, requestHeaders, jsonContent);
+        return requestBuilder.build();
+    }
 
+    private HttpResponse httpRequest(HttpUriRequest request) throws RemoteInvocationException {
         HttpResponse httpResponse;
         try {
-            httpResponse = httpClient.execute(requestBuilder.build());
+            httpResponse = httpClient.execute(request);
         } catch (IOException e) {
             throw new RemoteInvocationException("Unable to invoke remote endpoint.", e);
         }
@@ -483,9 +735,80 @@ public class LongRunningRestServiceWorkItemHandler extends AbstractLogOrThrowWor
         manager.completeWorkItem(workItemId, results);
     }
 
+    /**
+     * Buffers the async response entity in memory as the default consumer does, but fails the exchange as soon as
+     * more than maxSize bytes are received, so chunked responses without a content length are limited as well.
+     */
+    private static class LimitedResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+        private final long maxSize;
+
+        private volatile HttpResponse response;
+
+        private volatile SimpleInputBuffer buffer;
+
+        LimitedResponseConsumer(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected void onResponseReceived(HttpResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+            long contentLength = entity.getContentLength();
+            checkSize(contentLength);
+            int initialSize = contentLength > 0 ? (int) Math.min(contentLength, Integer.MAX_VALUE) : 4096;
+            buffer = new SimpleInputBuffer(initialSize, HeapByteBufferAllocator.INSTANCE);
+            response.setEntity(new ContentBufferEntity(entity, buffer));
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+            buffer.consumeContent(decoder);
+            checkSize(buffer.length());
+        }
+
+        private void checkSize(long size) throws ContentTooLongException {
+            if (maxSize > 0 && size > maxSize) {
+                throw new ContentTooLongException("Service invocation response exceeds the maximum allowed size of " + maxSize + " bytes set by " + Constant.HTTP_MAX_RESPONSE_SIZE + ".");
+            }
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) {
+            return response;
+        }
+
+        @Override
+        protected void releaseResources() {
+            response = null;
+            buffer = null;
+        }
+    }
+
     @Override
     public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
         completeWorkItem(manager, workItem.getId(), new WorkitemAbortedException());
     }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the http client.", e);
+        }
+        if (asyncHttpClient != null) {
+            try {
+                asyncHttpClient.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the async http client.", e);
+            }
+            asyncCompletionExecutor.shutdown();
+        }
+    }
 }
 
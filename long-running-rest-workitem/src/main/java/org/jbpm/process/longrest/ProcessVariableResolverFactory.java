@@ -15,18 +15,27 @@
  */
 package org.jbpm.process.longrest;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongFunction;
+
 import org.jbpm.process.longrest.util.Json;
 import org.kie.api.runtime.process.WorkflowProcessInstance;
 import org.mvel2.ScriptRuntimeException;
 import org.mvel2.UnresolveablePropertyException;
 import org.mvel2.integration.VariableResolver;
+import org.mvel2.integration.VariableResolverFactory;
 import org.mvel2.integration.impl.BaseVariableResolverFactory;
 import org.mvel2.integration.impl.SimpleValueResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Process instance variable resolver with chaining (nextFactory) support
+ * Process instance variable resolver with chaining (nextFactory) support.
+ * When created with a parent loader, the factory of the parent process instance is created lazily,
+ * the first time a variable is not found in this instance, so templates using only local variables
+ * never load the ancestors. Escaped strings are memoized until the variable is assigned another value, collections
+ * are escaped on every lookup as they can be changed in place (e.g. the cookies stored by the handler).
  *
  * @see org.jbpm.workflow.instance.impl.ProcessInstanceResolverFactory
  */
@@ -34,10 +43,34 @@ public class ProcessVariableResolverFactory extends BaseVariableResolverFactory
 
     private static final Logger logger = LoggerFactory.getLogger(ProcessVariableResolverFactory.class);
 
+    private static final Object UNRESOLVED = new Object();
+
     private final WorkflowProcessInstance processInstance;
 
+    private final LongFunction<WorkflowProcessInstance> parentLoader;
+
+    /**
+     * Number of ancestors that can still be loaded, circuit-breaker for the nested process instances.
+     */
+    private final int remainingDepth;
+
+    private final Map<String, EscapedString> escapedStrings = new HashMap<>();
+
     public ProcessVariableResolverFactory(WorkflowProcessInstance processInstance) {
+        this(processInstance, null, 0);
+    }
+
+    /**
+     * @param parentLoader loads a process instance by id, used to resolve the variables missing in this instance from its parents
+     * @param maxDepth maximum number of nested process instances
+     */
+    public ProcessVariableResolverFactory(
+            WorkflowProcessInstance processInstance,
+            LongFunction<WorkflowProcessInstance> parentLoader,
+            int maxDepth) {
         this.processInstance = processInstance;
+        this.parentLoader = parentLoader;
+        this.remainingDepth = maxDepth;
         logger.debug("Created new ProcessVariableResolverFactory for processInstance {}.", processInstance.getId());
     }
 
@@ -59,18 +92,14 @@ public class ProcessVariableResolverFactory extends BaseVariableResolverFactory
     @Override
     public boolean isResolveable(String name) {
         logger.trace("Is variable {} resolvable in the processInstance {}.", name, processInstance.getId());
-        Object processInstanceVariable = null;
-        try {
-            processInstanceVariable = processInstance.getVariable(name);
-        } catch (NullPointerException e) {
-            //workaround for NPE in processInstance.getVariable
-        }
-        if (processInstanceVariable != null) {
+        if (getEscapedVariable(name) != UNRESOLVED) {
             logger.trace("Variable {} is resolvable in the processInstance {}.", name, processInstance.getId());
             return true;
-        } else if (nextFactory != null) {
+        }
+        VariableResolverFactory next = getNextFactory();
+        if (next != null) {
             logger.trace("Variable {} is NOT resolvable in the processInstance {}, searching in the next factory.", name, processInstance.getId());
-            return nextFactory.isResolveable(name);
+            return next.isResolveable(name);
         } else {
             logger.trace("Variable {} is NOT resolvable in the processInstance {}.", name, processInstance.getId());
             return false;
@@ -80,19 +109,69 @@ public class ProcessVariableResolverFactory extends BaseVariableResolverFactory
     @Override
     public VariableResolver getVariableResolver(String name) {
         logger.trace("Getting resolver for {} in the processInstance {}.", name, processInstance.getId());
+        Object escaped = getEscapedVariable(name);
+        if (escaped != UNRESOLVED) {
+            logger.trace("Returning SimpleValueResolver for {} in the processInstance {}.", name, processInstance.getId());
+            return new SimpleValueResolver(escaped);
+        }
+        VariableResolverFactory next = getNextFactory();
+        if (next != null) {
+            logger.trace("Looking-up for next variable resolver for {}.", name);
+            return next.getVariableResolver(name);
+        }
+        throw new UnresolveablePropertyException("Unable to resolve variable '" + name + "'");
+    }
+
+    @Override
+    public VariableResolverFactory getNextFactory() {
+        if (nextFactory == null && parentLoader != null) {
+            long parentProcessInstanceId = processInstance.getParentProcessInstanceId();
+            if (parentProcessInstanceId > 0) {
+                if (remainingDepth <= 0) {  //circuit-breaker: allow only maxDepth nested process instances
+                    throw new RuntimeException("To many nested process instances.");
+                }
+                logger.trace("Loading parent processInstance {} of {}.", parentProcessInstanceId, processInstance.getId());
+                nextFactory = new ProcessVariableResolverFactory(
+                        parentLoader.apply(parentProcessInstanceId),
+                        parentLoader,
+                        remainingDepth - 1);
+            }
+        }
+        return nextFactory;
+    }
+
+    /**
+     * @return the escaped value of the variable or {@link #UNRESOLVED} when the process instance does not have it
+     */
+    private Object getEscapedVariable(String name) {
         Object processInstanceVariable = null;
         try {
             processInstanceVariable = processInstance.getVariable(name);
         } catch (NullPointerException e) {
             //workaround for NPE in processInstance.getVariable
         }
-        if (processInstanceVariable != null) {
-            logger.trace("Returning SimpleValueResolver for {} in the processInstance {}.", name, processInstance.getId());
-            return new SimpleValueResolver(Json.escape(processInstanceVariable));
-        } else if (nextFactory != null) {
-            logger.trace("Looking-up for next variable resolver for {}.", name);
-            return nextFactory.getVariableResolver(name);
+        if (processInstanceVariable == null) {
+            return UNRESOLVED;
+        }
+        if (!(processInstanceVariable instanceof String)) {
+            return Json.escape(processInstanceVariable);
+        }
+        EscapedString escaped = escapedStrings.get(name);
+        if (escaped == null || escaped.value != processInstanceVariable) {
+            escaped = new EscapedString((String) processInstanceVariable);
+            escapedStrings.put(name, escaped);
+        }
+        return escaped.escaped;
+    }
+
+    private static class EscapedString {
+
+        private final String value;
+        private final String escaped;
+
+        private EscapedString(String value) {
+            this.value = value;
+            this.escaped = Json.escape(value);
         }
-        throw new UnresolveablePropertyException("Unable to resolve variable '" + name + "'");
     }
 }
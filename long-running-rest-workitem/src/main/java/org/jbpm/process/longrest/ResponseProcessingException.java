@@ -17,6 +17,10 @@ package org.jbpm.process.longrest;
 
 public class ResponseProcessingException extends Exception {
 
+    public ResponseProcessingException(String message) {
+        super(message);
+    }
+
     public ResponseProcessingException(String message, Exception e) {
         super(message, e);
     }
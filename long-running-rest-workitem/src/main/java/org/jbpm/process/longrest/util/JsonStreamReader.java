@@ -0,0 +1,182 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a json document straight from a stream into maps, lists and plain values, without building
+ * the intermediate String and tree. A json pointer can be evaluated in the same pass.
+ * Root arrays are returned as a map indexed by the element position.
+ */
+public class JsonStreamReader {
+
+    private final long maxSize;
+
+    /**
+     * @param maxSize maximum number of bytes read from the stream, 0 or less for unlimited
+     */
+    public JsonStreamReader(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public Result read(InputStream inputStream, String pointer) throws IOException {
+        InputStream limited = maxSize > 0 ? new LimitedInputStream(inputStream, maxSize) : inputStream;
+        try (JsonParser parser = Mapper.getInstance().getFactory().createParser(limited)) {
+            Result result = new Result();
+            JsonPointer jsonPointer = Strings.isEmpty(pointer) ? null : JsonPointer.compile(pointer);
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                result.content = readObject(parser, jsonPointer, result);
+            } else if (token == JsonToken.START_ARRAY) {
+                List<Object> array = readArray(parser, jsonPointer, result);
+                Map<String, Object> indexed = new LinkedHashMap<>();
+                for (int i = 0; i < array.size(); i++) {
+                    indexed.put(Integer.toString(i), array.get(i));
+                }
+                result.content = indexed;
+            } else {
+                throw new IOException("Expected json object or array but got " + token + ".");
+            }
+            return result;
+        }
+    }
+
+    private Object readValue(JsonParser parser, JsonPointer pointer, Result result) throws IOException {
+        JsonToken token = parser.currentToken();
+        switch (token) {
+            case START_OBJECT:
+                return readObject(parser, pointer, result);
+            case START_ARRAY:
+                return readArray(parser, pointer, result);
+            case VALUE_STRING:
+                return capture(parser.getText(), parser.getText(), pointer, result);
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return capture(parser.getNumberValue(), parser.getText(), pointer, result);
+            case VALUE_TRUE:
+                return capture(Boolean.TRUE, "true", pointer, result);
+            case VALUE_FALSE:
+                return capture(Boolean.FALSE, "false", pointer, result);
+            case VALUE_NULL:
+                return capture(null, "null", pointer, result);
+            default:
+                throw new IOException("Unexpected json token " + token + ".");
+        }
+    }
+
+    private Map<String, Object> readObject(JsonParser parser, JsonPointer pointer, Result result) throws IOException {
+        capture(null, "", pointer, result);
+        Map<String, Object> object = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            JsonPointer child = pointer != null ? pointer.matchProperty(name) : null;
+            object.put(name, readValue(parser, child, result));
+        }
+        return object;
+    }
+
+    private List<Object> readArray(JsonParser parser, JsonPointer pointer, Result result) throws IOException {
+        capture(null, "", pointer, result);
+        List<Object> array = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            JsonPointer child = pointer != null ? pointer.matchElement(array.size()) : null;
+            array.add(readValue(parser, child, result));
+        }
+        return array;
+    }
+
+    /**
+     * Keeps the text of the value the pointer points to, containers are captured as empty text as in {@link com.fasterxml.jackson.databind.JsonNode#asText()}.
+     */
+    private Object capture(Object value, String text, JsonPointer pointer, Result result) {
+        if (pointer != null && pointer.matches()) {
+            result.pointerValue = text;
+        }
+        return value;
+    }
+
+    public static class Result {
+
+        private Map<String, Object> content;
+        private String pointerValue;
+
+        public Map<String, Object> getContent() {
+            return content;
+        }
+
+        /**
+         * @return text of the value at the json pointer or null when the pointer is missing in the document
+         */
+        public String getPointerValue() {
+            return pointerValue;
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+
+        private final long maxSize;
+        private long read;
+
+        LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(long n) throws IOException {
+            read += n;
+            if (read > maxSize) {
+                throw new IOException("Response exceeds the maximum allowed size of " + maxSize + " bytes.");
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mvel2.ParserContext;
+import org.mvel2.templates.CompiledTemplate;
+import org.mvel2.templates.TemplateCompiler;
+
+/**
+ * Bounded LRU cache of compiled MVEL templates keyed by the template text.
+ * Templates compiled with and without a parser context are cached separately.
+ * Compiled templates are immutable and can be executed concurrently.
+ */
+public class TemplateCache {
+
+    public static final String CACHE_SIZE = "org.jbpm.process.longrest.templateCacheSize";
+
+    private static final TemplateCache instance = new TemplateCache(Integer.getInteger(CACHE_SIZE, 256));
+
+    private final Map<String, CompiledTemplate> templates;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public TemplateCache(int maxSize) {
+        this.templates = new LinkedHashMap<String, CompiledTemplate>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledTemplate> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static TemplateCache getInstance() {
+        return instance;
+    }
+
+    public CompiledTemplate get(String template) {
+        return get(template, null);
+    }
+
+    public CompiledTemplate get(String template, ParserContext parserContext) {
+        String key = (parserContext == null ? "0:" : "1:") + template;
+        CompiledTemplate compiled;
+        synchronized (templates) {
+            compiled = templates.get(key);
+        }
+        if (compiled != null) {
+            hits.incrementAndGet();
+            return compiled;
+        }
+        misses.incrementAndGet();
+        // compiled outside the lock, concurrent misses of the same template just compile it twice
+        compiled = parserContext == null
+                ? TemplateCompiler.compileTemplate(template)
+                : TemplateCompiler.compileTemplate(template, parserContext);
+        synchronized (templates) {
+            templates.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (templates) {
+            templates.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HttpConnectionPoolTest {
+
+    private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("localhost", 8080));
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    @After
+    public void cleanup() {
+        System.clearProperty(Constant.HTTP_MAX_CONNECTIONS);
+        System.clearProperty(Constant.HTTP_MAX_CONNECTIONS_PER_ROUTE);
+        if (connectionManager != null) {
+            connectionManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsToTheSameHostAreNotLimitedByDefault() throws Exception {
+        connectionManager = LongRunningRestServiceWorkItemHandler.createConnectionManager();
+
+        // more than the default route limit of HttpClient
+        for (int i = 0; i < 50; i++) {
+            Assert.assertNotNull(connectionManager.requestConnection(ROUTE, null).get(1, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testRouteLimitDefaultsToTheMaxConnections() {
+        System.setProperty(Constant.HTTP_MAX_CONNECTIONS, "30");
+        connectionManager = LongRunningRestServiceWorkItemHandler.createConnectionManager();
+
+        Assert.assertEquals(30, connectionManager.getMaxTotal());
+        Assert.assertEquals(30, connectionManager.getDefaultMaxPerRoute());
+    }
+
+    @Test
+    public void testRequestsWaitingLongerThanTheTimeoutForALimitedRouteFail() throws Exception {
+        System.setProperty(Constant.HTTP_MAX_CONNECTIONS_PER_ROUTE, "2");
+        connectionManager = LongRunningRestServiceWorkItemHandler.createConnectionManager();
+
+        connectionManager.requestConnection(ROUTE, null).get(1, TimeUnit.SECONDS);
+        connectionManager.requestConnection(ROUTE, null).get(1, TimeUnit.SECONDS);
+        try {
+            connectionManager.requestConnection(ROUTE, null).get(100, TimeUnit.MILLISECONDS);
+            Assert.fail("The route allows two connections only");
+        } catch (ConnectionPoolTimeoutException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.mvel2.templates.TemplateRuntime;
+
+public class ProcessVariableResolverFactoryTest {
+
+    @Test
+    public void shouldLoadParentOnlyWhenVariableIsMissing() {
+        Map<String, Object> parentVariables = new HashMap<>();
+        parentVariables.put("inherited", "from parent");
+        WorkflowProcessInstance parent = processInstance(1, 0, parentVariables);
+        Map<String, Object> childVariables = new HashMap<>();
+        childVariables.put("local", "from child");
+        WorkflowProcessInstance child = processInstance(2, 1, childVariables);
+
+        AtomicInteger loads = new AtomicInteger();
+        ProcessVariableResolverFactory factory = new ProcessVariableResolverFactory(child, id -> {
+            loads.incrementAndGet();
+            return parent;
+        }, 10);
+
+        Assert.assertEquals("from child", TemplateRuntime.eval("@{local}", factory));
+        Assert.assertEquals(0, loads.get());
+
+        Assert.assertEquals("from parent", TemplateRuntime.eval("@{inherited}", factory));
+        Assert.assertEquals("from parent", TemplateRuntime.eval("@{inherited}", factory));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldResolveCurrentValues() {
+        Map<String, String> cookies = new HashMap<>();
+        cookies.put("session", "a");
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("cookies", cookies);
+        variables.put("name", "first");
+        ProcessVariableResolverFactory factory = new ProcessVariableResolverFactory(processInstance(1, 0, variables));
+
+        Assert.assertEquals("a first", TemplateRuntime.eval("@{cookies.session} @{name}", factory));
+
+        cookies.put("session", "b");
+        variables.put("name", "second");
+        Assert.assertEquals("b second", TemplateRuntime.eval("@{cookies.session} @{name}", factory));
+    }
+
+    private WorkflowProcessInstance processInstance(long id, long parentId, Map<String, Object> variables) {
+        return (WorkflowProcessInstance) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[]{WorkflowProcessInstance.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getId":
+                            return id;
+                        case "getParentProcessInstanceId":
+                            return parentId;
+                        case "getVariable":
+                            return variables.get(args[0]);
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
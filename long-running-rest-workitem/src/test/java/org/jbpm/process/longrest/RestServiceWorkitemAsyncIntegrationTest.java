@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest;
+
+import org.junit.After;
+
+/**
+ * Runs the integration tests with the handler in the async http mode, the work items are completed
+ * from the response callbacks, including the failed invocations.
+ */
+public class RestServiceWorkitemAsyncIntegrationTest extends RestServiceWorkitemIntegrationTest {
+
+    private LongRunningRestServiceWorkItemHandler workItemHandler;
+
+    @Override
+    protected LongRunningRestServiceWorkItemHandler createWorkItemHandler() {
+        System.setProperty(Constant.HTTP_ASYNC, "true");
+        try {
+            workItemHandler = super.createWorkItemHandler();
+        } finally {
+            System.clearProperty(Constant.HTTP_ASYNC);
+        }
+        return workItemHandler;
+    }
+
+    @After
+    public void closeWorkItemHandler() {
+        workItemHandler.close();
+    }
+}
@@ -94,11 +94,15 @@ public class RestServiceWorkitemIntegrationTest extends JbpmJUnitBaseTestCase {
 
         manager = createRuntimeManager(Strategy.PROCESS_INSTANCE, resources);
         customProcessListeners.add(new RestServiceProcessEventListener(activeProcesses));
-        customHandlers.put("LongRunningRestService", new LongRunningRestServiceWorkItemHandler(manager));
+        customHandlers.put("LongRunningRestService", createWorkItemHandler());
 
         bootUpServices();
     }
 
+    protected LongRunningRestServiceWorkItemHandler createWorkItemHandler() {
+        return new LongRunningRestServiceWorkItemHandler(manager);
+    }
+
     @After
     public void postTestTeardown() throws Exception {
         logger.info("Stopping http server ...");
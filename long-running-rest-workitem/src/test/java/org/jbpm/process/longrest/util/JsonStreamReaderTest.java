@@ -0,0 +1,71 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonStreamReaderTest {
+
+    @Test
+    public void shouldReadObjectAndEvaluatePointer() throws IOException {
+        String json = "{\"id\":1,\"cancel\":{\"url\":\"http://localhost/cancel\"},\"tags\":[\"a\",\"b\"],\"done\":false}";
+
+        JsonStreamReader.Result result = new JsonStreamReader(0).read(stream(json), "/cancel/url");
+
+        Map<String, Object> content = result.getContent();
+        Assert.assertEquals(1, content.get("id"));
+        Assert.assertEquals("http://localhost/cancel", Maps.getStringObjectMap(content, "cancel").get("url"));
+        Assert.assertEquals(Arrays.asList("a", "b"), content.get("tags"));
+        Assert.assertEquals(Boolean.FALSE, content.get("done"));
+        Assert.assertEquals("http://localhost/cancel", result.getPointerValue());
+    }
+
+    @Test
+    public void shouldIndexRootArray() throws IOException {
+        JsonStreamReader.Result result = new JsonStreamReader(0).read(stream("[{\"n\":1},[2,3]]"), "/1/0");
+
+        Map<String, Object> content = result.getContent();
+        Assert.assertEquals(2, content.size());
+        Assert.assertEquals(1, Maps.getStringObjectMap(content, "0").get("n"));
+        Assert.assertEquals(3, ((List<?>) content.get("1")).get(1));
+        Assert.assertEquals("2", result.getPointerValue());
+    }
+
+    @Test
+    public void shouldReturnNullForMissingPointer() throws IOException {
+        JsonStreamReader.Result result = new JsonStreamReader(0).read(stream("{\"id\":1}"), "/cancel");
+
+        Assert.assertNull(result.getPointerValue());
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTooLargeResponse() throws IOException {
+        new JsonStreamReader(10).read(stream("{\"value\":\"more than ten bytes\"}"), null);
+    }
+
+    private InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.longrest.util;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mvel2.ParserContext;
+import org.mvel2.templates.CompiledTemplate;
+import org.mvel2.templates.TemplateRuntime;
+
+public class TemplateCacheTest {
+
+    @Test
+    public void shouldReuseCompiledTemplate() {
+        TemplateCache cache = new TemplateCache(10);
+
+        CompiledTemplate first = cache.get("Hello @{name}!");
+        CompiledTemplate second = cache.get("Hello @{name}!");
+
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals("Hello jBPM!", TemplateRuntime.execute(second, Collections.singletonMap("name", "jBPM")));
+    }
+
+    @Test
+    public void shouldCacheSeparatelyWithParserContext() {
+        TemplateCache cache = new TemplateCache(10);
+
+        CompiledTemplate withoutContext = cache.get("@{name}");
+        CompiledTemplate withContext = cache.get("@{name}", new ParserContext());
+
+        Assert.assertNotSame(withoutContext, withContext);
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() {
+        TemplateCache cache = new TemplateCache(2);
+
+        CompiledTemplate first = cache.get("first");
+        cache.get("second");
+        cache.get("first");
+        cache.get("third");
+
+        Assert.assertEquals(2, cache.size());
+        Assert.assertSame(first, cache.get("first"));
+        cache.get("second");
+        Assert.assertEquals(4, cache.getMisses());
+    }
+}
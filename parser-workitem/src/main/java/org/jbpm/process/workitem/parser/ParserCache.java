@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.parser;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/**
+ * Parsers shared by all the handlers: an ObjectMapper per class loader with a reader and writer per type, and a
+ * JAXBContext per type with pools of marshallers and unmarshallers, which are not thread safe and are only used
+ * by one thread at a time. The parsers are attached to the type itself through a {@link ClassValue}, so they live
+ * as long as the class does, whichever class loader the handler was created with, and are released together with
+ * the class loader of the type once it is undeployed.
+ */
+public class ParserCache {
+
+    public static final String POOL_SIZE = "org.jbpm.process.workitem.parser.poolSize";
+
+    private static final ParserCache INSTANCE = new ParserCache();
+
+    private final int poolSize = Integer.getInteger(POOL_SIZE, 16);
+
+    // the types of a class loader keep its mapper alive, so both the loader and its mapper are only weakly held
+    private final Map<ClassLoader, WeakReference<ObjectMapper>> mappers = new WeakHashMap<>();
+
+    private final ClassValue<TypeParsers> parsers = new ClassValue<TypeParsers>() {
+        @Override
+        protected TypeParsers computeValue(Class<?> type) {
+            return new TypeParsers(type, getMapper(type.getClassLoader()), poolSize);
+        }
+    };
+
+    private ParserCache() {
+    }
+
+    /**
+     * @return the cache shared by all the handlers
+     */
+    public static ParserCache getInstance() {
+        return INSTANCE;
+    }
+
+    public ObjectReader getReader(Class<?> type) {
+        return parsers.get(type).getReader();
+    }
+
+    public ObjectWriter getWriter(Class<?> type) {
+        return parsers.get(type).getWriter();
+    }
+
+    public JAXBContext getJAXBContext(Class<?> type) throws JAXBException {
+        return parsers.get(type).getXmlParsers().context;
+    }
+
+    public Marshaller borrowMarshaller(Class<?> type) throws JAXBException {
+        XmlParsers xmlParsers = parsers.get(type).getXmlParsers();
+        Marshaller marshaller = xmlParsers.marshallers.poll();
+        if (marshaller == null) {
+            marshaller = xmlParsers.context.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
+        }
+        return marshaller;
+    }
+
+    public void returnMarshaller(Class<?> type, Marshaller marshaller) {
+        XmlParsers xmlParsers = parsers.get(type).xmlParsers;
+        if (xmlParsers != null) {
+            xmlParsers.marshallers.offer(marshaller);
+        }
+    }
+
+    public Unmarshaller borrowUnmarshaller(Class<?> type) throws JAXBException {
+        XmlParsers xmlParsers = parsers.get(type).getXmlParsers();
+        Unmarshaller unmarshaller = xmlParsers.unmarshallers.poll();
+        return unmarshaller != null ? unmarshaller : xmlParsers.context.createUnmarshaller();
+    }
+
+    public void returnUnmarshaller(Class<?> type, Unmarshaller unmarshaller) {
+        XmlParsers xmlParsers = parsers.get(type).xmlParsers;
+        if (xmlParsers != null) {
+            xmlParsers.unmarshallers.offer(unmarshaller);
+        }
+    }
+
+    private ObjectMapper getMapper(ClassLoader classLoader) {
+        synchronized (mappers) {
+            WeakReference<ObjectMapper> reference = mappers.get(classLoader);
+            ObjectMapper mapper = reference != null ? reference.get() : null;
+            if (mapper == null) {
+                mapper = new ObjectMapper();
+                mappers.put(classLoader, new WeakReference<>(mapper));
+            }
+            return mapper;
+        }
+    }
+
+    private static class TypeParsers {
+
+        private final Class<?> type;
+        private final int poolSize;
+        // shared by the types of the same class loader, a mapper shared across class loaders would keep their
+        // classes in its caches
+        private final ObjectMapper mapper;
+        // readers and writers are immutable, a racing lookup only creates a duplicate
+        private volatile ObjectReader reader;
+        private volatile ObjectWriter writer;
+        private volatile XmlParsers xmlParsers;
+
+        private TypeParsers(Class<?> type, ObjectMapper mapper, int poolSize) {
+            this.type = type;
+            this.mapper = mapper;
+            this.poolSize = poolSize;
+        }
+
+        private ObjectReader getReader() {
+            ObjectReader result = reader;
+            if (result == null) {
+                result = reader = mapper.readerFor(type);
+            }
+            return result;
+        }
+
+        private ObjectWriter getWriter() {
+            ObjectWriter result = writer;
+            if (result == null) {
+                result = writer = mapper.writerFor(type);
+            }
+            return result;
+        }
+
+        private XmlParsers getXmlParsers() throws JAXBException {
+            XmlParsers result = xmlParsers;
+            if (result == null) {
+                // only blocks the lookups of this type, JAXBContext.newInstance is too slow to create it twice
+                synchronized (this) {
+                    result = xmlParsers;
+                    if (result == null) {
+                        result = xmlParsers = new XmlParsers(JAXBContext.newInstance(type), poolSize);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private static class XmlParsers {
+
+        private final JAXBContext context;
+        // a full pool drops the returned instance
+        private final BlockingQueue<Marshaller> marshallers;
+        private final BlockingQueue<Unmarshaller> unmarshallers;
+
+        private XmlParsers(JAXBContext context, int poolSize) {
+            this.context = context;
+            this.marshallers = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+            this.unmarshallers = new ArrayBlockingQueue<>(Math.max(poolSize, 1));
+        }
+    }
+}
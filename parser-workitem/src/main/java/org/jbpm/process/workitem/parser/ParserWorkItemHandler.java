@@ -21,13 +21,13 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
-import javax.xml.bind.JAXB;
-import javax.xml.bind.JAXBContext;
+import javax.xml.bind.DataBindingException;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.stream.StreamSource;
 
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
 import org.jbpm.process.workitem.core.util.Wid;
@@ -102,6 +102,7 @@ public class ParserWorkItemHandler extends AbstractLogOrThrowWorkItemHandler {
     public static final String RESULT = "Result";
 
     private ClassLoader cl;
+    private final ParserCache cache = ParserCache.getInstance();
 
     public ParserWorkItemHandler() {
         this.cl = this.getClass().getClassLoader();
@@ -170,28 +171,40 @@ public class ParserWorkItemHandler extends AbstractLogOrThrowWorkItemHandler {
 
     protected Object convertXMLToObject(String input,
                                         Class<?> type) {
-        return JAXB.unmarshal(new StringReader(input),
-                              type);
+        try {
+            Unmarshaller unmarshaller = cache.borrowUnmarshaller(type);
+            try {
+                return unmarshaller.unmarshal(new StreamSource(new StringReader(input)),
+                                              type).getValue();
+            } finally {
+                cache.returnUnmarshaller(type,
+                                         unmarshaller);
+            }
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
     }
 
     protected String convertToXML(Object input) throws JAXBException {
         StringWriter result = new StringWriter();
-        JAXBContext jaxbContext = JAXBContext.newInstance(input.getClass());
-        Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-        jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT,
-                                   false);
-        jaxbMarshaller.marshal(input,
-                               result);
+        Class<?> type = input.getClass();
+        Marshaller jaxbMarshaller = cache.borrowMarshaller(type);
+        try {
+            jaxbMarshaller.marshal(input,
+                                   result);
+        } finally {
+            cache.returnMarshaller(type,
+                                   jaxbMarshaller);
+        }
         return result.toString();
     }
 
     protected Object convertJSONToObject(String input,
                                          Class<?> type) throws JsonMappingException, IOException {
-        return new ObjectMapper().readValue(input,
-                                            type);
+        return cache.getReader(type).readValue(input);
     }
 
     protected Object convertToJSON(Object input) throws JsonMappingException, IOException {
-        return new ObjectMapper().writeValueAsString(input);
+        return cache.getWriter(input.getClass()).writeValueAsString(input);
     }
 }
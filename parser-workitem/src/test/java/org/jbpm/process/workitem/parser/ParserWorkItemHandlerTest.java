@@ -16,7 +16,13 @@
 
 package org.jbpm.process.workitem.parser;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.drools.core.process.instance.impl.WorkItemImpl;
 import org.jbpm.bpmn2.handler.WorkItemHandlerRuntimeException;
@@ -132,5 +138,62 @@ public class ParserWorkItemHandlerTest {
         assertEquals(PERSON_JSON,
                      result);
     }
-}
 
+    @Test
+    public void testParsersAreShared() throws Exception {
+        ParserWorkItemHandler other = new ParserWorkItemHandler();
+        Person p = new Person(NAME,
+                              AGE);
+
+        assertEquals(handler.convertToXML(p),
+                     other.convertToXML(p));
+        assertEquals(PERSON_XML,
+                     other.convertToXML(p));
+
+        ParserCache cache = ParserCache.getInstance();
+        assertSame(cache,
+                   ParserCache.getInstance());
+        assertSame(cache.getJAXBContext(Person.class),
+                   cache.getJAXBContext(Person.class));
+        assertSame(cache.getReader(Person.class),
+                   cache.getReader(Person.class));
+    }
+
+    @Test
+    public void testPooledParsersAreThreadSafe() throws Exception {
+        int threads = 32;
+        int iterations = 200;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String name = NAME + t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < iterations; i++) {
+                        String xml = handler.convertToXML(new Person(name,
+                                                                     i));
+                        assertEquals(PERSON_XML.replace(AGE + "</age>",
+                                                        i + "</age>").replace(NAME,
+                                                                              name),
+                                     xml);
+                        Person person = (Person) handler.convertXMLToObject(xml,
+                                                                            Person.class);
+                        assertEquals(name,
+                                     person.getName());
+                        assertEquals(i,
+                                     person.getAge());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -16,9 +16,23 @@
 
 package org.jbpm.process.workitem.transform;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jbpm.process.workitem.core.AbstractLogOrThrowWorkItemHandler;
 import org.jbpm.process.workitem.core.util.RequiredParameterValidator;
@@ -63,9 +77,14 @@ public class TransformWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
     private static String OUTPUT_TYPE_KEY = "OutputType";
     private static String VARIABLE_OUTPUT_NAME = "OutputObject";
 
-    // Keyed on the return type of the transformer with a second key of the parameter type
-    private Map<Class<?>, Map<Class<?>, Method>> transforms =
-            new HashMap<Class<?>, Map<Class<?>, Method>>();
+    private static final MethodType TRANSFORM_TYPE = MethodType.methodType(Object.class,
+                                                                           Object.class);
+
+    // Immutable snapshot of the transformers with the lookups resolved against it, replaced on registration
+    private volatile Index index = new Index(Collections.<Class<?>, Map<Class<?>, MethodHandle>>emptyMap());
+
+    // Output types resolved by name, so they are neither loaded nor instantiated on every execution
+    private final ConcurrentMap<String, Class<?>> outputTypes = new ConcurrentHashMap<String, Class<?>>();
 
     public void executeWorkItem(WorkItem workItem,
                                 WorkItemManager manager) {
@@ -76,57 +95,229 @@ public class TransformWorkItemHandler extends AbstractLogOrThrowWorkItemHandler
 
             Object in = workItem.getParameter(INPUT_KEY);
             String outputType = (String) workItem.getParameter(OUTPUT_TYPE_KEY);
-            Object output = Class.forName(outputType).getDeclaredConstructor().newInstance();
-            Method txMethod = this.findTransform(output.getClass(),
-                                                 in.getClass());
-
-            if (txMethod != null) {
-                Object out = txMethod.invoke(null,
-                                             in);
-                Map<String, Object> result = new HashMap<String, Object>();
-                result.put(VARIABLE_OUTPUT_NAME,
-                           out);
-                manager.completeWorkItem(workItem.getId(),
-                                         result);
-            } else {
-                logger.error("Failed to find a transform ");
+            MethodHandle txMethod = this.findTransform(getOutputType(outputType),
+                                                       in.getClass());
+
+            if (txMethod == null) {
+                throw new IllegalArgumentException("Failed to find a transform from " + in.getClass().getName()
+                                                           + " to " + outputType);
             }
-        } catch (Exception e) {
+            Object out = txMethod.invokeExact(in);
+            Map<String, Object> result = new HashMap<String, Object>();
+            result.put(VARIABLE_OUTPUT_NAME,
+                       out);
+            manager.completeWorkItem(workItem.getId(),
+                                     result);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // invokeExact declares Throwable, the exceptions of the transformers fail the work item
             handleException(e);
         }
     }
 
-    public void registerTransformer(Class<?> transformer) {
+    public synchronized void registerTransformer(Class<?> transformer) {
         Method[] methods = transformer.getMethods();
         if (methods == null) {
             return;
         }
+        Map<Class<?>, Map<Class<?>, MethodHandle>> transforms = new HashMap<Class<?>, Map<Class<?>, MethodHandle>>();
+        for (Map.Entry<Class<?>, Map<Class<?>, MethodHandle>> entry : index.transforms.entrySet()) {
+            transforms.put(entry.getKey(),
+                           new HashMap<Class<?>, MethodHandle>(entry.getValue()));
+        }
         for (Method meth : methods) {
-            // Only consider methods that have the @Transformer annotation
-            if (meth.getAnnotation(Transformer.class) == null) {
+            // Only consider static methods that have the @Transformer annotation
+            if (meth.getAnnotation(Transformer.class) == null || !Modifier.isStatic(meth.getModifiers())
+                    || meth.getParameterTypes().length != 1) {
                 continue;
             }
             Class<?> returnType = meth.getReturnType();
             Class<?> paramType = meth.getParameterTypes()[0];
 
-            Map<Class<?>, Method> index = transforms.get(returnType);
-            if (index == null) {
-                index = new HashMap<Class<?>, Method>();
+            MethodHandle handle;
+            try {
+                handle = MethodHandles.publicLookup().unreflect(meth).asType(TRANSFORM_TYPE);
+            } catch (IllegalAccessException e) {
+                logger.warn("Transformer {} is not accessible",
+                            meth,
+                            e);
+                continue;
+            }
+            Map<Class<?>, MethodHandle> byParam = transforms.get(returnType);
+            if (byParam == null) {
+                byParam = new HashMap<Class<?>, MethodHandle>();
                 transforms.put(returnType,
-                               index);
+                               byParam);
             }
-            index.put(paramType,
-                      meth);
+            byParam.put(paramType,
+                        handle);
+        }
+        // a new snapshot also drops the lookups resolved against the previous one
+        index = new Index(transforms);
+    }
+
+    private Class<?> getOutputType(String outputType) throws ClassNotFoundException {
+        Class<?> type = outputTypes.get(outputType);
+        if (type == null) {
+            type = Class.forName(outputType);
+            outputTypes.putIfAbsent(outputType,
+                                    type);
         }
+        return type;
     }
 
-    private Method findTransform(Class<?> returnClass,
-                                 Class<?> paramClass) {
-        Map<Class<?>, Method> indexedTxForm = transforms.get(returnClass);
-        if (indexedTxForm == null) {
+    private MethodHandle findTransform(Class<?> returnClass,
+                                       Class<?> paramClass) {
+        return index.find(returnClass,
+                          paramClass);
+    }
+
+    /**
+     * Transformers keyed on the return type with a second key of the parameter type, with the memoized lookups.
+     * A lookup accepts a transformer taking a supertype or an interface of the input, the nearest one first,
+     * and returning the requested type or one of its subtypes, the nearest one first and then by name, so the
+     * choice does not depend on the hash order of the classes. Without such a transformer, the shortest chain
+     * of transformers leading from the input to the requested type is planned and compiled into a single handle.
+     */
+    private static final class Index {
+
+        private static final MethodHandle NONE = MethodHandles.constant(Object.class,
+                                                                        null);
+
+        private final Map<Class<?>, Map<Class<?>, MethodHandle>> transforms;
+        // return types of the transformers sorted by name, the iteration order of the lookups and plans
+        private final List<Class<?>> returnTypes;
+        private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, MethodHandle>> lookups =
+                new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, MethodHandle>>();
+
+        private Index(Map<Class<?>, Map<Class<?>, MethodHandle>> transforms) {
+            this.transforms = transforms;
+            this.returnTypes = new ArrayList<Class<?>>(transforms.keySet());
+            this.returnTypes.sort(Comparator.comparing(Class::getName));
+        }
+
+        MethodHandle find(Class<?> returnClass,
+                          Class<?> paramClass) {
+            ConcurrentMap<Class<?>, MethodHandle> byParam = lookups.get(returnClass);
+            if (byParam == null) {
+                lookups.putIfAbsent(returnClass,
+                                    new ConcurrentHashMap<Class<?>, MethodHandle>());
+                byParam = lookups.get(returnClass);
+            }
+            MethodHandle handle = byParam.get(paramClass);
+            if (handle == null) {
+                handle = resolve(returnClass,
+                                 paramClass);
+                if (handle == null) {
+                    handle = plan(returnClass,
+                                  paramClass);
+                }
+                byParam.putIfAbsent(paramClass,
+                                    handle != null ? handle : NONE);
+            }
+            return handle == NONE ? null : handle;
+        }
+
+        private MethodHandle resolve(Class<?> returnClass,
+                                     Class<?> paramClass) {
+            List<Class<?>> candidates = new ArrayList<Class<?>>();
+            for (Class<?> type : returnTypes) {
+                if (returnClass.isAssignableFrom(type)) {
+                    candidates.add(type);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            // the requested type itself first, then its nearest subtypes, ties stay in name order
+            candidates.sort(Comparator.comparingInt(type -> distance(type,
+                                                                     returnClass)));
+            for (Class<?> type : hierarchy(paramClass)) {
+                for (Class<?> candidate : candidates) {
+                    MethodHandle handle = transforms.get(candidate).get(type);
+                    if (handle != null) {
+                        return handle;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Breadth first search over the types reachable from the input, each transformer being an edge from its
+         * parameter type to its return type, so the first chain reaching the requested type is a shortest one.
+         */
+        private MethodHandle plan(Class<?> returnClass,
+                                  Class<?> paramClass) {
+            Map<Class<?>, MethodHandle> chains = new HashMap<Class<?>, MethodHandle>();
+            chains.put(paramClass,
+                       MethodHandles.identity(Object.class));
+            Deque<Class<?>> queue = new ArrayDeque<Class<?>>();
+            queue.add(paramClass);
+            while (!queue.isEmpty()) {
+                Class<?> current = queue.poll();
+                Set<Class<?>> currentTypes = hierarchy(current);
+                for (Class<?> next : returnTypes) {
+                    if (chains.containsKey(next)) {
+                        continue;
+                    }
+                    for (Class<?> type : currentTypes) {
+                        MethodHandle step = transforms.get(next).get(type);
+                        if (step == null) {
+                            continue;
+                        }
+                        MethodHandle chain = MethodHandles.filterReturnValue(chains.get(current),
+                                                                             step);
+                        if (returnClass.isAssignableFrom(next)) {
+                            return chain;
+                        }
+                        chains.put(next,
+                                   chain);
+                        queue.add(next);
+                        break;
+                    }
+                }
+            }
             return null;
         }
-        return indexedTxForm.get(paramClass);
+
+        /**
+         * @return number of breadth first steps from the type up to the given supertype
+         */
+        private static int distance(Class<?> type,
+                                    Class<?> supertype) {
+            int distance = 0;
+            for (Class<?> current : hierarchy(type)) {
+                if (current == supertype) {
+                    return distance;
+                }
+                distance++;
+            }
+            return distance;
+        }
+
+        /**
+         * @return the type, its superclasses and its interfaces, breadth first
+         */
+        private static Set<Class<?>> hierarchy(Class<?> type) {
+            Set<Class<?>> types = new LinkedHashSet<Class<?>>();
+            Deque<Class<?>> queue = new ArrayDeque<Class<?>>();
+            queue.add(type);
+            while (!queue.isEmpty()) {
+                Class<?> current = queue.poll();
+                if (!types.add(current)) {
+                    continue;
+                }
+                if (current.getSuperclass() != null) {
+                    queue.add(current.getSuperclass());
+                }
+                Collections.addAll(queue,
+                                   current.getInterfaces());
+            }
+            types.add(Object.class);
+            return types;
+        }
     }
 
     public void abortWorkItem(WorkItem arg0,
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2021 Red Hat, Inc. and/or its affiliates.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jbpm.process.workitem.transform;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.jbpm.process.workitem.core.TestWorkItemManager;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransformWorkItemHandlerTest {
+
+    public static class CollectionTransformer {
+
+        @Transformer
+        public static Integer collectionToSize(Collection<?> collection) {
+            return collection.size();
+        }
+    }
+
+    public static class StringTransformer {
+
+        @Transformer
+        public static Integer stringToLength(String string) {
+            return string.length();
+        }
+    }
+
+    public static class NumberTransformer {
+
+        @Transformer
+        public static Long stringToLong(String string) {
+            return Long.valueOf(string.length());
+        }
+
+        @Transformer
+        public static Integer stringToInteger(String string) {
+            return string.length();
+        }
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+        File file = File.createTempFile("transform",
+                                        ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),
+                    "line".getBytes(StandardCharsets.UTF_8));
+
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(FileTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              file);
+        workItem.setParameter("OutputType",
+                              "java.lang.String");
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        assertEquals("line",
+                     manager.getResults().get(workItem.getId()).get("OutputObject"));
+    }
+
+    @Test
+    public void testTransformWithSupertypes() {
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(FileTransformer.class);
+        handler.registerTransformer(CollectionTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              new ArrayList<String>(Arrays.asList("a", "b")));
+        // Number is a supertype of the Integer returned, ArrayList a subtype of the Collection taken
+        workItem.setParameter("OutputType",
+                              "java.lang.Number");
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        assertEquals(2,
+                     manager.getResults().get(workItem.getId()).get("OutputObject"));
+    }
+
+    @Test
+    public void testOutputTypeIsNotInstantiated() throws Exception {
+        File file = File.createTempFile("transform",
+                                        ".txt");
+        file.deleteOnExit();
+
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(FileTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              file);
+        // Reader is abstract, so it could not be instantiated to learn its class
+        workItem.setParameter("OutputType",
+                              Reader.class.getName());
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        Object out = manager.getResults().get(workItem.getId()).get("OutputObject");
+        assertTrue(out instanceof BufferedReader);
+        ((BufferedReader) out).close();
+    }
+
+    @Test
+    public void testTransformChain() throws Exception {
+        File file = File.createTempFile("transform",
+                                        ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),
+                    "four".getBytes(StandardCharsets.UTF_8));
+
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(FileTransformer.class);
+        handler.registerTransformer(StringTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              file);
+        // no transformer from File to Integer, planned as File to String to Integer
+        workItem.setParameter("OutputType",
+                              "java.lang.Integer");
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        assertEquals(4,
+                     manager.getResults().get(workItem.getId()).get("OutputObject"));
+    }
+
+    @Test
+    public void testMissingTransformFailsWorkItem() {
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(StringTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              new ArrayList<String>());
+        workItem.setParameter("OutputType",
+                              "java.lang.Integer");
+        try {
+            handler.executeWorkItem(workItem,
+                                    manager);
+            fail("A work item without a transform must fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertFalse(manager.getResults().containsKey(workItem.getId()));
+    }
+
+    @Test
+    public void testSubtypeCandidatesAreRankedByName() {
+        TransformWorkItemHandler handler = new TransformWorkItemHandler();
+        handler.registerTransformer(NumberTransformer.class);
+
+        TestWorkItemManager manager = new TestWorkItemManager();
+        WorkItemImpl workItem = new WorkItemImpl();
+        workItem.setParameter("InputObject",
+                              "three");
+        // Integer and Long are both one step below Number, Integer comes first by name
+        workItem.setParameter("OutputType",
+                              "java.lang.Number");
+        handler.executeWorkItem(workItem,
+                                manager);
+
+        assertEquals(5,
+                     manager.getResults().get(workItem.getId()).get("OutputObject"));
+    }
+}